@@ -0,0 +1,78 @@
+package rubbles.monitoring.coverage;
+
+import org.springframework.util.LinkedCaseInsensitiveMap;
+import rubbles.monitoring.coverage.model.AvailableClientBaseQueryResult;
+import rubbles.monitoring.coverage.model.CascadeCountQueryResult;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+import rubbles.monitoring.coverage.model.CoverageData;
+import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public final class SyntheticData {
+    public static final String[] COMMUNICATION_COVERAGE_COLUMNS = {
+            "brand", "type", "channel", "comm_count", "unique_client_count", "communications_per_client", "coverage"
+    };
+
+    private static final String[] BRANDS = {"ГОРЗДРАВ", "366", "Апрель", "Вита & Ко", "<Аптека>"};
+    private static final String[] CHANNELS = {"EMAIL", "SMS", "PUSH"};
+    private static final String[] TYPES = {"Триггерная", "Массовая", "Сервисная"};
+
+    private SyntheticData() {
+    }
+
+    public static Object[][] communicationCoverageRows(int count) {
+        Random random = new Random(count);
+        Object[][] rows = new Object[count][];
+        for (int i = 0; i < count; i++) {
+            long comm = random.nextInt(5_000_000);
+            long unique = Math.max(1, comm / (1 + random.nextInt(5)));
+            rows[i] = new Object[]{
+                    BRANDS[i % BRANDS.length],
+                    TYPES[i % TYPES.length],
+                    CHANNELS[i % CHANNELS.length],
+                    comm,
+                    unique,
+                    BigDecimal.valueOf(comm * 100 / unique, 2),
+                    (unique * 100 / 7_000_000) + "%"
+            };
+        }
+        return rows;
+    }
+
+    public static List<Map<String, Object>> communicationCoverageMaps(int count) {
+        List<Map<String, Object>> result = new ArrayList<>(count);
+        for (Object[] row : communicationCoverageRows(count)) {
+            Map<String, Object> map = new LinkedCaseInsensitiveMap<>();
+            for (int i = 0; i < row.length; i++) {
+                map.put(COMMUNICATION_COVERAGE_COLUMNS[i], row[i]);
+            }
+            result.add(map);
+        }
+        return result;
+    }
+
+    public static CoverageData coverageData(int count) {
+        Random random = new Random(count);
+        List<AvailableClientBaseQueryResult> availableClientBase = new ArrayList<>(count);
+        List<CommunicationCoverageQueryResult> communicationCoverage = new ArrayList<>(count);
+        List<OfferCoverageQueryResult> offerCoverage = new ArrayList<>(count);
+        List<CascadeCountQueryResult> cascadeCount = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String brand = BRANDS[i % BRANDS.length];
+            long base = random.nextInt(10_000_000);
+            availableClientBase.add(new AvailableClientBaseQueryResult(brand, base, base / 2, base / 3, base / 4,
+                    base / 5, "33.3%", "25.0%", "20.0%"));
+            communicationCoverage.add(new CommunicationCoverageQueryResult(brand, TYPES[i % TYPES.length],
+                    CHANNELS[i % CHANNELS.length], base, base / 3, BigDecimal.valueOf(300, 2), "12.5%"));
+            offerCoverage.add(new OfferCoverageQueryResult(brand, base, base / 2, base / 3, base / 4, base / 5,
+                    "33.3%", "20.0%"));
+            cascadeCount.add(new CascadeCountQueryResult("Метрика " + i, base / 2, base / 3, base));
+        }
+        return new CoverageData(availableClientBase, communicationCoverage, offerCoverage, cascadeCount);
+    }
+}
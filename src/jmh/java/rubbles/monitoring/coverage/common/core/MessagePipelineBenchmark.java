@@ -0,0 +1,84 @@
+package rubbles.monitoring.coverage.common.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rubbles.monitoring.coverage.SyntheticData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MessagePipelineBenchmark {
+    private static final int CHILDREN_PER_MESSAGE = 3;
+
+    @Param({"100", "10000", "1000000"})
+    public int rows;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<Message> messages;
+    private Processor<Message, Message> fanOut;
+
+    @Setup(Level.Trial)
+    public void createDataset() {
+        List<Map<String, Object>> maps = SyntheticData.communicationCoverageMaps(rows);
+        messages = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Message message = new Message(String.valueOf(i));
+            message.getData().putAll(maps.get(i));
+            messages.add(message);
+        }
+        fanOut = message -> {
+            List<Message> children = new ArrayList<>(CHILDREN_PER_MESSAGE);
+            for (int i = 0; i < CHILDREN_PER_MESSAGE; i++) {
+                Message child = new Message(message.getId());
+                child.getData().put("child_index", i);
+                child.getData().put("coverage", "override");
+                children.add(child);
+            }
+            return children;
+        };
+    }
+
+    @Benchmark
+    public void copyMessage(Blackhole blackhole) {
+        for (Message message : messages) {
+            blackhole.consume(new Message(message));
+        }
+    }
+
+    @Benchmark
+    public void enrich(Blackhole blackhole) {
+        for (Message message : messages) {
+            blackhole.consume(fanOut.enrich(message));
+        }
+    }
+
+    @Benchmark
+    public void convertToParameterMap(Blackhole blackhole) {
+        // the conversion QueryProcessor.apply performs before every query
+        for (Message message : messages) {
+            blackhole.consume(objectMapper.convertValue(message, new TypeReference<Map<String, Object>>() {
+            }));
+        }
+    }
+}
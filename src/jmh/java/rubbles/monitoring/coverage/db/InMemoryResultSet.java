@@ -0,0 +1,51 @@
+package rubbles.monitoring.coverage.db;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+
+/**
+ * Minimal array-backed {@link ResultSet} covering the calls made by the section row mappers.
+ */
+final class InMemoryResultSet {
+    private InMemoryResultSet() {
+    }
+
+    static ResultSet of(String[] columns, Object[][] rows) {
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+                InMemoryResultSet.class.getClassLoader(), new Class<?>[]{ResultSetMetaData.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getColumnCount" -> columns.length;
+                    case "getColumnLabel", "getColumnName" -> columns[(Integer) args[0] - 1];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        int[] cursor = {-1};
+        boolean[] wasNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(
+                InMemoryResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return ++cursor[0] < rows.length;
+                        case "getMetaData":
+                            return metaData;
+                        case "wasNull":
+                            return wasNull[0];
+                        case "close":
+                            return null;
+                        default:
+                            break;
+                    }
+                    Object value = rows[cursor[0]][(Integer) args[0] - 1];
+                    wasNull[0] = value == null;
+                    return switch (method.getName()) {
+                        case "getString" -> value == null ? null : value.toString();
+                        case "getLong" -> value == null ? 0L : ((Number) value).longValue();
+                        case "getBigDecimal" -> value == null ? null : new BigDecimal(value.toString());
+                        case "getObject" -> value;
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    };
+                });
+    }
+}
@@ -0,0 +1,100 @@
+package rubbles.monitoring.coverage.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+import rubbles.monitoring.coverage.SyntheticData;
+import rubbles.monitoring.coverage.common.db.ColumnIndex;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RowMappingBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int rows;
+
+    private List<Map<String, Object>> maps;
+    private Object[][] values;
+    private ResultSet resultSet;
+
+    @Setup(Level.Trial)
+    public void createDataset() {
+        maps = SyntheticData.communicationCoverageMaps(rows);
+        values = SyntheticData.communicationCoverageRows(rows);
+    }
+
+    @Setup(Level.Invocation)
+    public void rewind() {
+        resultSet = InMemoryResultSet.of(SyntheticData.COMMUNICATION_COVERAGE_COLUMNS, values);
+    }
+
+    @Benchmark
+    public List<CommunicationCoverageQueryResult> rowMapToModel() {
+        return maps.stream().map(row -> new CommunicationCoverageQueryResult(
+                (String) row.get("brand"),
+                (String) row.get("type"),
+                (String) row.get("channel"),
+                (Long) row.get("comm_count"),
+                (Long) row.get("unique_client_count"),
+                (BigDecimal) row.get("communications_per_client"),
+                (String) row.get("coverage")
+        )).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<CommunicationCoverageQueryResult> columnMapThenModel() throws SQLException {
+        // the full queryForList path: one case-insensitive map per row, then a second pass into the model
+        ColumnMapRowMapper columnMapRowMapper = new ColumnMapRowMapper();
+        List<Map<String, Object>> rowMaps = new ArrayList<>();
+        int rowNum = 0;
+        while (resultSet.next()) {
+            rowMaps.add(columnMapRowMapper.mapRow(resultSet, rowNum++));
+        }
+        return rowMaps.stream().map(row -> new CommunicationCoverageQueryResult(
+                (String) row.get("brand"),
+                (String) row.get("type"),
+                (String) row.get("channel"),
+                (Long) row.get("comm_count"),
+                (Long) row.get("unique_client_count"),
+                (BigDecimal) row.get("communications_per_client"),
+                (String) row.get("coverage")
+        )).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<CommunicationCoverageQueryResult> indexedRowMapper() throws SQLException {
+        RowMapper<CommunicationCoverageQueryResult> mapper =
+                DbAdapter.COMMUNICATION_COVERAGE_MAPPER.bind(new ColumnIndex(resultSet.getMetaData()));
+        List<CommunicationCoverageQueryResult> result = new ArrayList<>();
+        int rowNum = 0;
+        while (resultSet.next()) {
+            result.add(mapper.mapRow(resultSet, rowNum++));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,50 @@
+package rubbles.monitoring.coverage.report;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rubbles.monitoring.coverage.SyntheticData;
+import rubbles.monitoring.coverage.model.CoverageData;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReportRenderingBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int rows;
+
+    private final CoverageReportRenderer renderer = new CoverageReportRenderer();
+    private CoverageData data;
+
+    @Setup(Level.Trial)
+    public void createDataset() {
+        data = SyntheticData.coverageData(rows);
+    }
+
+    @Benchmark
+    public HtmlBody renderReport() {
+        return renderer.render(data);
+    }
+
+    @Benchmark
+    public int renderCommunicationCoverageTable() {
+        HtmlBody body = new HtmlBody(CoverageReportRenderer.COMMUNICATION_COVERAGE_TABLE.estimateSize(rows));
+        CoverageReportRenderer.COMMUNICATION_COVERAGE_TABLE.render(body, data.getCommunicationCoverageData());
+        return body.size();
+    }
+}
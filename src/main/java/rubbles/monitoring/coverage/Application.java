@@ -2,18 +2,27 @@ package rubbles.monitoring.coverage;
 
 import com.glowbyte.a366.crypt.blowfish.Encryptor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import rubbles.monitoring.coverage.adapter.MonitoringCoverageAdapter;
+import rubbles.monitoring.coverage.config.CoverageRuntimeHints;
+import rubbles.monitoring.coverage.schedule.ReportScheduler;
 
 @SpringBootApplication
+@ImportRuntimeHints(CoverageRuntimeHints.class)
 @Slf4j
 public class Application implements CommandLineRunner {
 
+	// resolved on use, so that with lazy initialization -action warmup creates none of the application beans
 	@Autowired
-	private MonitoringCoverageAdapter monitoringNpsAdapter;
+	private ObjectProvider<MonitoringCoverageAdapter> monitoringNpsAdapter;
+
+	@Autowired
+	private ObjectProvider<ReportScheduler> reportScheduler;
 
 	public static void main(String[] args) {
 		parseArgs(args);
@@ -32,6 +41,10 @@ public class Application implements CommandLineRunner {
 			System.out.println("		Значение для шифрования");
 			System.out.println(" -action run");
 			System.out.println("	Запуск основной логики скрипта");
+			System.out.println(" -action daemon");
+			System.out.println("	Запуск в режиме планировщика: отчёты запускаются по cron-выражениям schedule.reports.<отчёт>.cron");
+			System.out.println(" -action warmup");
+			System.out.println("	Запуск и остановка контекста без выполнения отчётов (обучающий запуск для CDS-архива)");
 			checkFlag = 1;
 		}
 
@@ -77,14 +90,33 @@ public class Application implements CommandLineRunner {
 					System.out.println("ОШИБКА: В случае использования значения \"crypt\" для аргумента -action обязательно должен быть указан аргумент -value2crypt");
 				}
 			}
-			else if (action.equalsIgnoreCase("run")) {
+			else if (action.equalsIgnoreCase("run") || action.equalsIgnoreCase("daemon")) {
 				SpringApplication.run(Application.class, args);
 			}
+			else if (action.equalsIgnoreCase("warmup")) {
+				SpringApplication.run(Application.class, args).close();
+			}
 		}
 	}
 
 	@Override
 	public void run(String[] args) throws Exception {
-		monitoringNpsAdapter.run();
+		if (isAction(args, "warmup")) {
+			log.info("Warmup run, no reports are run.");
+		} else if (isAction(args, "daemon")) {
+			// the scheduler threads keep the context alive until it is shut down
+			reportScheduler.getObject().start();
+		} else {
+			monitoringNpsAdapter.getObject().run();
+		}
+	}
+
+	private static boolean isAction(String[] args, String action) {
+		for (int i = 0; i + 1 < args.length; i++) {
+			if (args[i].equalsIgnoreCase("-action") && args[i + 1].equalsIgnoreCase(action)) {
+				return true;
+			}
+		}
+		return false;
 	}
 }
@@ -0,0 +1,222 @@
+package rubbles.monitoring.coverage.adapter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import rubbles.monitoring.coverage.db.DbAdapter;
+import rubbles.monitoring.coverage.model.CoverageSection;
+import rubbles.monitoring.coverage.model.ReportFilter;
+import rubbles.monitoring.coverage.report.CoverageReportRenderer;
+import rubbles.monitoring.coverage.report.CsvAttachment;
+import rubbles.monitoring.coverage.report.CsvAttachmentWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the optional per-section detail attachments: the rows of a section's detail query are streamed once from
+ * the database and written, gzip-compressed, to one CSV file per report variant, keeping only the rows of the
+ * variant's brands and channels. A variant limited to brands or channels gets no file, only a notice, when the
+ * query has no {@code brand} or {@code channel} column to limit the rows by; unfiltered detail goes to the
+ * {@link ReportFilter#ALL} variant only.
+ * <p>
+ * {@code attachments.max-bytes} is the size of an attachment as sent, base64-encoded with its part headers, which is
+ * about 4/3 of the file. A larger file is not attached; the report says where to download it when
+ * {@code attachments.directory} is set, and that it was too large otherwise. Without a directory the files are
+ * written to a temporary one, writing stops as soon as the cap is exceeded and an oversized file is deleted.
+ */
+@Service
+@Slf4j
+public class AttachmentBuilder {
+
+    @Autowired
+    private DbAdapter dbAdapter;
+
+    @Value("${attachments.enabled:false}")
+    private boolean enabled;
+
+    @Value("${attachments.max-bytes:10485760}")
+    private long maxBytes;
+
+    @Value("${attachments.directory:}")
+    private String directory;
+
+    @Value("${attachments.download-url:}")
+    private String downloadUrl;
+
+    @Value("${attachments.csv-delimiter:;}")
+    private char delimiter;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public DetailAttachments build(Collection<ReportFilter> filters, LocalDate runDate) throws IOException {
+        if (!enabled) {
+            return DetailAttachments.NONE;
+        }
+        boolean keepFiles = !directory.isBlank();
+        Path target = keepFiles ? Files.createDirectories(Paths.get(directory))
+                : Files.createTempDirectory("coverage-attachments-");
+        DetailAttachments attachments = new DetailAttachments(keepFiles ? null : target);
+        for (ReportFilter filter : filters) {
+            attachments.add(filter);
+        }
+        for (CoverageSection section : CoverageSection.values()) {
+            if (dbAdapter.hasDetail(section)) {
+                buildSection(section, filters, runDate, target, keepFiles, attachments);
+            }
+        }
+        return attachments;
+    }
+
+    private void buildSection(CoverageSection section, Collection<ReportFilter> filters, LocalDate runDate,
+                              Path target, boolean keepFiles, DetailAttachments attachments) {
+        String title = CoverageReportRenderer.title(section);
+        Map<ReportFilter, CsvAttachmentWriter> writers = new LinkedHashMap<>();
+        long startNanos = System.nanoTime();
+        try {
+            Set<String> fileNames = new HashSet<>();
+            for (ReportFilter filter : filters) {
+                writers.put(filter, new CsvAttachmentWriter(target.resolve(fileName(section, runDate, filter,
+                        fileNames)), delimiter, maxBytes));
+            }
+            boolean[] firstRow = {true};
+            dbAdapter.streamDetail(section, row -> {
+                boolean hasBrand = row.containsKey("brand");
+                boolean hasChannel = row.containsKey("channel");
+                if (firstRow[0]) {
+                    firstRow[0] = false;
+                    dropUnfilterable(writers, hasBrand, hasChannel, title, attachments);
+                }
+                Iterator<Map.Entry<ReportFilter, CsvAttachmentWriter>> iterator = writers.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<ReportFilter, CsvAttachmentWriter> entry = iterator.next();
+                    ReportFilter filter = entry.getKey();
+                    if (!filter.acceptsBrand(hasBrand ? String.valueOf(row.get("brand")) : null)
+                            || !filter.acceptsChannel(hasChannel ? String.valueOf(row.get("channel")) : null)) {
+                        continue;
+                    }
+                    CsvAttachmentWriter writer = entry.getValue();
+                    try {
+                        writer.write(row);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    // nobody could download the rest, so it is not read
+                    if (!keepFiles && writer.isOversized()) {
+                        writer.close();
+                        iterator.remove();
+                        attachments.add(filter).getNotices().add(tooLarge(title));
+                    }
+                }
+                return !writers.isEmpty();
+            });
+            for (Map.Entry<ReportFilter, CsvAttachmentWriter> entry : writers.entrySet()) {
+                CsvAttachment attachment = entry.getValue().finish();
+                DetailAttachments.Variant variant = attachments.add(entry.getKey());
+                if (attachment.isOversized() && !keepFiles) {
+                    // the last flush of the writer can take it over the cap; the temporary file is not served
+                    Files.deleteIfExists(attachment.getPath());
+                    variant.getNotices().add(tooLarge(title));
+                } else if (attachment.isOversized()) {
+                    variant.getNotices().add(download(title, attachment));
+                } else if (attachment.getRows() > 0) {
+                    variant.getAttachments().add(attachment);
+                } else {
+                    Files.deleteIfExists(attachment.getPath());
+                }
+            }
+            log.info("Built {} detail for {} report variant(s) in {} ms", section.getDescription(), filters.size(),
+                    (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (Exception e) {
+            log.error("Error building {} detail attachment: {}", section.getDescription(), e.getMessage(), e);
+            for (ReportFilter filter : filters) {
+                attachments.add(filter).getNotices().add("Детализацию «" + title + "» сформировать не удалось.");
+            }
+        } finally {
+            // closing a finished writer does nothing, an unfinished one is deleted
+            writers.values().forEach(CsvAttachmentWriter::close);
+        }
+    }
+
+    /**
+     * Drops the writers of the variants the detail rows cannot be limited for: they would get other brands' or
+     * channels' rows.
+     */
+    private void dropUnfilterable(Map<ReportFilter, CsvAttachmentWriter> writers, boolean hasBrand, boolean hasChannel,
+                                  String title, DetailAttachments attachments) {
+        Iterator<Map.Entry<ReportFilter, CsvAttachmentWriter>> iterator = writers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ReportFilter, CsvAttachmentWriter> entry = iterator.next();
+            ReportFilter filter = entry.getKey();
+            if ((!filter.getBrands().isEmpty() && !hasBrand) || (!filter.getChannels().isEmpty() && !hasChannel)) {
+                entry.getValue().close();
+                iterator.remove();
+                attachments.add(filter).getNotices().add("Детализация «" + title
+                        + "» не может быть ограничена вашими брендами и каналами и не приложена к письму.");
+            }
+        }
+    }
+
+    private String tooLarge(String title) {
+        return "Детализация «" + title + "» превышает допустимый размер вложения (" + megabytes(maxBytes)
+                + ") и не приложена к письму.";
+    }
+
+    private String download(String title, CsvAttachment attachment) {
+        String location = downloadUrl.isBlank() ? attachment.getPath().toAbsolutePath().toString()
+                : downloadUrl.replaceAll("/+$", "") + "/" + attachment.getName();
+        return "Детализация «" + title + "» (" + megabytes(attachment.getBytes())
+                + ") превышает допустимый размер вложения и доступна для загрузки: " + location;
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(Locale.forLanguageTag("ru"), "%.1f МБ", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Variants of one day get distinct files that keep their names from run to run: the name carries a digest of the
+     * filter, and a counter in the unlikely case that two digests are cut to the same prefix.
+     */
+    private static String fileName(CoverageSection section, LocalDate runDate, ReportFilter filter,
+                                   Set<String> fileNames) {
+        String name = section.name().toLowerCase(Locale.ROOT) + "_" + runDate;
+        if (!filter.isAll()) {
+            name += "_" + digest(filter);
+        }
+        String unique = name;
+        for (int i = 2; !fileNames.add(unique); i++) {
+            unique = name + "_" + i;
+        }
+        return unique + ".csv.gz";
+    }
+
+    private static String digest(ReportFilter filter) {
+        StringBuilder key = new StringBuilder();
+        filter.getBrands().forEach(brand -> key.append("b:").append(brand).append('\0'));
+        filter.getChannels().forEach(channel -> key.append("c:").append(channel).append('\0'));
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package rubbles.monitoring.coverage.adapter;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import rubbles.monitoring.coverage.common.db.QueryHandle;
+import rubbles.monitoring.coverage.common.db.ShardGroup;
+import rubbles.monitoring.coverage.db.DbAdapter;
+import rubbles.monitoring.coverage.model.AvailableClientBaseQueryResult;
+import rubbles.monitoring.coverage.model.CascadeCountQueryResult;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+import rubbles.monitoring.coverage.model.CoverageData;
+import rubbles.monitoring.coverage.model.CoverageSection;
+import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+@Service
+@Slf4j
+public class CoverageCollector {
+
+    @Autowired
+    private DbAdapter dbAdapter;
+
+    @Autowired
+    @Qualifier("cdmShards")
+    private ShardGroup cdmShards;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${monitoring.collect.concurrent:true}")
+    private boolean concurrent;
+
+    @Value("${monitoring.collect.parallelism:4}")
+    private int parallelism;
+
+    @Value("${monitoring.collect.section-timeout-ms:1800000}")
+    private long sectionTimeoutMs;
+
+    @Value("${monitoring.collect.deadline-ms:0}")
+    private long deadlineMs;
+
+    public CoverageData collect() {
+        log.info("Getting data for monitoring from DB...");
+        int sections = CoverageSection.values().length;
+        int threads = concurrent ? Math.min(parallelism, sections) : 1;
+        if (threads > cdmShards.getPoolSize()) {
+            log.warn("Collect parallelism {} exceeds the CDM pool size {}, collecting on {} threads.",
+                    parallelism, cdmShards.getPoolSize(), cdmShards.getPoolSize());
+            threads = cdmShards.getPoolSize();
+        }
+        boolean parallel = threads > 1;
+        if (parallel) {
+            log.info("Collecting {} sections concurrently on {} threads (section timeout {} ms, run deadline {} ms)",
+                    sections, threads, sectionTimeoutMs, deadlineMs);
+        }
+        RunBudget budget = new RunBudget(deadlineMs, sectionTimeoutMs, threads, sections);
+        Set<CoverageSection> timedOut = EnumSet.noneOf(CoverageSection.class);
+        ExecutorService executor = parallel ? Executors.newFixedThreadPool(threads, threadFactory("coverage-section-")) : null;
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(threadFactory("coverage-watchdog-"));
+        try {
+            FutureTask<List<AvailableClientBaseQueryResult>> availableClientBase = submit(executor, watchdog, budget,
+                    CoverageSection.AVAILABLE_CLIENT_BASE, dbAdapter::selectAvailableClientBaseData, this::logRow);
+            FutureTask<List<CommunicationCoverageQueryResult>> communicationCoverage = submit(executor, watchdog, budget,
+                    CoverageSection.COMMUNICATION_COVERAGE, dbAdapter::selectCommunicationCoverageData, this::logRow);
+            FutureTask<List<OfferCoverageQueryResult>> offerCoverage = submit(executor, watchdog, budget,
+                    CoverageSection.OFFER_COVERAGE, dbAdapter::selectOfferCoverageData, this::logRow);
+            FutureTask<List<CascadeCountQueryResult>> cascadeCount = submit(executor, watchdog, budget,
+                    CoverageSection.CASCADE_COUNT, dbAdapter::selectCascadeCountData, this::logRow);
+
+            return new CoverageData(
+                    await(CoverageSection.AVAILABLE_CLIENT_BASE, availableClientBase, timedOut),
+                    await(CoverageSection.COMMUNICATION_COVERAGE, communicationCoverage, timedOut),
+                    await(CoverageSection.OFFER_COVERAGE, offerCoverage, timedOut),
+                    await(CoverageSection.CASCADE_COUNT, cascadeCount, timedOut),
+                    timedOut
+            );
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            watchdog.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the section on {@code executor}, or right away on the calling thread when there is none. Its budget is
+     * taken when it actually starts, not while it waits for a free thread; when the budget runs out the task is
+     * cancelled and its running statements get {@code Statement.cancel}.
+     */
+    private <T> FutureTask<List<T>> submit(ExecutorService executor, ScheduledExecutorService watchdog, RunBudget budget,
+                                           CoverageSection section, SectionQuery<T> query, Consumer<T> rowLogger) {
+        QueryHandle handle = new QueryHandle();
+        FutureTask<List<T>> task = new FutureTask<>(() -> handle.call(() -> collectSection(section, query, rowLogger)));
+        Runnable runner = () -> {
+            long budgetMs = budget.take();
+            if (budgetMs <= 0) {
+                log.error("Run deadline reached before {} data could be requested.", section.getDescription());
+                task.cancel(false);
+                return;
+            }
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+                log.error("Getting {} data from DB exceeded its {} ms budget, cancelling the query.",
+                        section.getDescription(), budgetMs);
+                // the task is cancelled first, so that the failing query does not complete it with an empty result
+                task.cancel(true);
+                handle.cancel();
+            }, budgetMs, TimeUnit.MILLISECONDS);
+            try {
+                task.run();
+            } finally {
+                timeout.cancel(false);
+            }
+        };
+        if (executor != null) {
+            executor.execute(runner);
+        } else {
+            runner.run();
+            // a cancel(true) of an inline task interrupts the calling thread, which goes on with the next section
+            Thread.interrupted();
+        }
+        return task;
+    }
+
+    private <T> List<T> await(CoverageSection section, FutureTask<List<T>> task, Set<CoverageSection> timedOut) {
+        try {
+            return task.get();
+        } catch (CancellationException e) {
+            timedOut.add(section);
+            log.error("Getting {} data from DB timed out, the section will be reported as such.", section.getDescription());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.cancel(true);
+            log.error("Interrupted while waiting for {} data from DB.", section.getDescription());
+        } catch (ExecutionException e) {
+            log.error("Error getting {} data from DB: {}", section.getDescription(), e.getCause().getMessage(), e.getCause());
+        }
+        return Collections.emptyList();
+    }
+
+    private <T> List<T> collectSection(CoverageSection section, SectionQuery<T> query, Consumer<T> rowLogger) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            log.info("Getting {} data...", section.getDescription());
+            List<T> rows = query.select();
+            outcome = "success";
+            DistributionSummary.builder("coverage.section.rows")
+                    .description("Rows returned per report section")
+                    .tag("section", section.name().toLowerCase())
+                    .register(meterRegistry)
+                    .record(rows.size());
+            if (!rows.isEmpty()) {
+                log.info("Successfully received {} data ({} records).", section.getDescription(), rows.size());
+                if (log.isDebugEnabled()) {
+                    rows.forEach(rowLogger);
+                }
+            } else {
+                log.warn("Didn't get any {} data from DB.", section.getDescription());
+            }
+            return rows;
+        } catch (Exception e) {
+            log.error("Error getting {} data from DB: {}", section.getDescription(), e.getMessage(), e);
+            return Collections.emptyList();
+        } finally {
+            sample.stop(Timer.builder("coverage.section")
+                    .description("Time to collect a report section")
+                    .tags("section", section.name().toLowerCase(), "outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    private void logRow(AvailableClientBaseQueryResult row) {
+        log.debug("Brand: {}, Total Clients: {}, Available Clients: {}, Email Count: {}, SMS Count: {}, Email & SMS Count: {}, Email %: {}, SMS %: {}, Email & SMS %: {}",
+                row.getBrand(),
+                row.getTotalClientsCount(),
+                row.getAvailableClientCount(),
+                row.getEmailCount(),
+                row.getSmsCount(),
+                row.getEmailAndSmsCount(),
+                row.getEmailPercentage(),
+                row.getSmsPercentage(),
+                row.getEmailAndSmsPercentage()
+        );
+    }
+
+    private void logRow(CommunicationCoverageQueryResult row) {
+        log.debug("Brand: {}, Type: {}, Channel: {}, Client Count: {}, Unique Client Count: {}, Communications Per Client: {}, Coverage: {}",
+                row.getBrand(),
+                row.getType(),
+                row.getChannel(),
+                row.getCommCount(),
+                row.getUniqueClientCount(),
+                row.getCommunicationsPerClient(),
+                row.getCoverage()
+        );
+    }
+
+    private void logRow(OfferCoverageQueryResult row) {
+        log.debug("Brand: {}, Offer count: {}, Unique clients with offer: {}, Offers with comm: {}, Unique clients with offer and comm: {}, Available base: {}, Offer coverage: {}, Offer with comm coverage: {}",
+                row.getBrand(),
+                row.getOfferCount(),
+                row.getUniqueClientsWithOffer(),
+                row.getOffersWithComm(),
+                row.getUniqueClientsWithOfferAndComm(),
+                row.getAvailableBase(),
+                row.getOfferCoverage(),
+                row.getOfferWithCommCoverage()
+        );
+    }
+
+    private void logRow(CascadeCountQueryResult row) {
+        log.debug("Message desc: {}, GZ count: {}, 366 count: {}, total: {}",
+                row.getMessageDesc(),
+                row.getGzCount(),
+                row.getAptekaCount(),
+                row.getTotal()
+        );
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Splits the run deadline between the sections: a starting section gets the remaining time divided by the number
+     * of waves of sections still to start, capped by the section timeout. Time a section does not use goes to the
+     * later ones. Without a deadline every section gets the section timeout.
+     */
+    private static class RunBudget {
+        private final long deadlineNanos;
+        private final long sectionTimeoutMs;
+        private final int threads;
+        private int notStarted;
+
+        RunBudget(long deadlineMs, long sectionTimeoutMs, int threads, int sections) {
+            this.deadlineNanos = deadlineMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs) : 0;
+            this.sectionTimeoutMs = sectionTimeoutMs;
+            this.threads = threads;
+            this.notStarted = sections;
+        }
+
+        synchronized long take() {
+            int waves = Math.max(1, (notStarted + threads - 1) / threads);
+            notStarted--;
+            if (deadlineNanos == 0) {
+                return sectionTimeoutMs;
+            }
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            return Math.min(sectionTimeoutMs, remainingMs / waves);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SectionQuery<T> {
+        List<T> select() throws Exception;
+    }
+}
@@ -0,0 +1,76 @@
+package rubbles.monitoring.coverage.adapter;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import rubbles.monitoring.coverage.model.ReportFilter;
+import rubbles.monitoring.coverage.report.CsvAttachment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The attachments built by {@link AttachmentBuilder} for every report variant. Closing it deletes the attached
+ * files, and the temporary directory they were written to; files only offered for download are kept.
+ */
+@Slf4j
+public class DetailAttachments implements AutoCloseable {
+    public static final DetailAttachments NONE = new DetailAttachments(null);
+
+    private final Map<ReportFilter, Variant> variants = new LinkedHashMap<>();
+    private final Path temporaryDirectory;
+
+    DetailAttachments(Path temporaryDirectory) {
+        this.temporaryDirectory = temporaryDirectory;
+    }
+
+    public Variant get(ReportFilter filter) {
+        return variants.getOrDefault(filter, Variant.EMPTY);
+    }
+
+    Variant add(ReportFilter filter) {
+        return variants.computeIfAbsent(filter, key -> new Variant());
+    }
+
+    @Override
+    public void close() {
+        for (Variant variant : variants.values()) {
+            for (CsvAttachment attachment : variant.attachments) {
+                delete(attachment.getPath());
+            }
+        }
+        if (temporaryDirectory != null) {
+            delete(temporaryDirectory);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Error deleting {}: {}", path, e.getMessage());
+        }
+    }
+
+    @Getter
+    public static class Variant {
+        static final Variant EMPTY = new Variant(Collections.emptyList(), Collections.emptyList());
+
+        private final List<CsvAttachment> attachments;
+        private final List<String> notices;
+
+        Variant() {
+            this(new ArrayList<>(), new ArrayList<>());
+        }
+
+        private Variant(List<CsvAttachment> attachments, List<String> notices) {
+            this.attachments = attachments;
+            this.notices = notices;
+        }
+    }
+}
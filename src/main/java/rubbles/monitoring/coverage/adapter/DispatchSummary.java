@@ -0,0 +1,56 @@
+package rubbles.monitoring.coverage.adapter;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@Getter
+public class DispatchSummary {
+    private final List<RecipientResult> results = Collections.synchronizedList(new ArrayList<>());
+    private long elapsedMs;
+
+    void add(RecipientResult result) {
+        results.add(result);
+    }
+
+    void setElapsedMs(long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+
+    public List<RecipientResult> getDelivered() {
+        synchronized (results) {
+            return results.stream().filter(RecipientResult::isDelivered).toList();
+        }
+    }
+
+    public List<RecipientResult> getFailed() {
+        synchronized (results) {
+            return results.stream().filter(result -> !result.isDelivered()).toList();
+        }
+    }
+
+    public long latencyPercentile(double percentile) {
+        long[] latencies;
+        synchronized (results) {
+            latencies = results.stream().mapToLong(RecipientResult::getLatencyMs).sorted().toArray();
+        }
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class RecipientResult {
+        private final String email;
+        private final boolean delivered;
+        private final int attempts;
+        private final long latencyMs;
+        private final String error;
+    }
+}
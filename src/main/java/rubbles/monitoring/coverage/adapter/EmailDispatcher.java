@@ -0,0 +1,266 @@
+package rubbles.monitoring.coverage.adapter;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.util.MailConnectException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import rubbles.monitoring.coverage.adapter.DispatchSummary.RecipientResult;
+
+import javax.activation.DataSource;
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+@Slf4j
+public class EmailDispatcher {
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${smtp.dispatch.parallelism:4}")
+    private int parallelism;
+
+    @Value("${smtp.dispatch.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${smtp.dispatch.initial-backoff-ms:1000}")
+    private long initialBackoffMs;
+
+    @Value("${smtp.dispatch.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${smtp.dispatch.rate-per-second:0}")
+    private double ratePerSecond;
+
+    @Value("${smtp.dispatch.burst:1}")
+    private int burst;
+
+    public DispatchSummary dispatch(List<String> emails, DataSource htmlBody) throws Exception {
+        return dispatch(emails, htmlBody, List.of());
+    }
+
+    public DispatchSummary dispatch(List<String> emails, DataSource htmlBody, List<? extends DataSource> attachments)
+            throws Exception {
+        long startNanos = System.nanoTime();
+        DispatchSummary summary = new DispatchSummary();
+        List<InternetAddress[]> batches = emailService.partition(emails,
+                (email, error) -> summary.add(new RecipientResult(email, false, 0, 0, error)));
+
+        if (!batches.isEmpty()) {
+            MimeMessage template = emailService.createReportMessage(htmlBody, attachments);
+            template.saveChanges();
+            Queue<InternetAddress[]> queue = new ConcurrentLinkedQueue<>(batches);
+            TokenBucket bucket = new TokenBucket(ratePerSecond, burst);
+            int threads = Math.max(1, Math.min(parallelism, batches.size()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory());
+            try {
+                List<Future<?>> workers = new ArrayList<>(threads);
+                for (int i = 0; i < threads; i++) {
+                    workers.add(executor.submit(() -> work(attachments.isEmpty() ? template : null, htmlBody,
+                            attachments, queue, bucket, summary)));
+                }
+                for (Future<?> worker : workers) {
+                    try {
+                        worker.get();
+                    } catch (ExecutionException e) {
+                        log.error("Email dispatch worker failed: {}", e.getCause().getMessage(), e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            // batches left behind by a failed worker are reported instead of silently dropped
+            InternetAddress[] batch;
+            while ((batch = queue.poll()) != null) {
+                complete(summary, batch, false, 0, startNanos, "not dispatched");
+            }
+        }
+
+        summary.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        log.info("Dispatched report to {} of {} recipients in {} ms (latency p50 {} ms, p95 {} ms, max {} ms)",
+                summary.getDelivered().size(), emails.size(), summary.getElapsedMs(),
+                summary.latencyPercentile(50), summary.latencyPercentile(95), summary.latencyPercentile(100));
+        return summary;
+    }
+
+    private Void work(MimeMessage template, DataSource htmlBody, List<? extends DataSource> attachments,
+                      Queue<InternetAddress[]> queue, TokenBucket bucket, DispatchSummary summary) throws Exception {
+        // every worker owns its copy of the message and its own connection; copying a message buffers all of its
+        // parts, so a message with attachments is built anew and keeps reading them from disk
+        MimeMessage msg = template != null ? new MimeMessage(template)
+                : emailService.createReportMessage(htmlBody, attachments);
+        Transport transport = emailService.createTransport();
+        try {
+            InternetAddress[] batch;
+            while ((batch = queue.poll()) != null) {
+                deliver(transport, msg, batch, bucket, summary);
+            }
+        } finally {
+            EmailService.closeQuietly(transport);
+        }
+        return null;
+    }
+
+    private void deliver(Transport transport, MimeMessage msg, InternetAddress[] batch, TokenBucket bucket,
+                         DispatchSummary summary) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        InternetAddress[] pending = batch;
+        int attempts = 0;
+        try {
+            while (pending.length > 0) {
+                bucket.acquire();
+                pending = attempt(transport, msg, pending, ++attempts, summary, startNanos);
+                if (pending.length > 0) {
+                    long backoffMs = backoffMs(attempts);
+                    log.warn("Transient SMTP failure for {} recipients, retrying in {} ms (attempt {} of {})",
+                            pending.length, backoffMs, attempts + 1, maxAttempts);
+                    TimeUnit.MILLISECONDS.sleep(backoffMs);
+                }
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            // the recipients still pending are reported, so that they get the error email
+            complete(summary, pending, false, attempts, startNanos, "not delivered: " + e);
+            if (e instanceof InterruptedException) {
+                throw e;
+            }
+            log.error("Error delivering to {} recipients: {}", pending.length, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends {@code pending} once and returns the recipients to retry.
+     */
+    private InternetAddress[] attempt(Transport transport, MimeMessage msg, InternetAddress[] pending, int attempt,
+                                      DispatchSummary summary, long startNanos) {
+        List<InternetAddress> retry = new ArrayList<>();
+        try {
+            emailService.send(transport, msg, pending);
+            complete(summary, pending, true, attempt, startNanos, null);
+        } catch (SendFailedException e) {
+            Set<String> sent = addresses(e.getValidSentAddresses());
+            Map<String, Exception> failures = addressFailures(e);
+            for (InternetAddress address : pending) {
+                Exception cause = failures.getOrDefault(address.getAddress(), e);
+                if (sent.contains(address.getAddress())) {
+                    complete(summary, address, true, attempt, startNanos, null);
+                } else if (attempt < maxAttempts && isTransient(cause)) {
+                    retry.add(address);
+                } else {
+                    complete(summary, address, false, attempt, startNanos, cause.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            EmailService.closeQuietly(transport);
+            if (attempt < maxAttempts && isTransient(e)) {
+                retry.addAll(List.of(pending));
+            } else {
+                complete(summary, pending, false, attempt, startNanos, e.getMessage());
+            }
+        }
+        return retry.toArray(new InternetAddress[0]);
+    }
+
+    private long backoffMs(int attempt) {
+        long backoff = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 30));
+        return backoff + ThreadLocalRandom.current().nextLong(backoff / 4 + 1);
+    }
+
+    static boolean isTransient(Exception e) {
+        if (e instanceof SMTPAddressFailedException failed) {
+            return failed.getReturnCode() / 100 == 4;
+        }
+        if (e instanceof SMTPSendFailedException failed) {
+            return failed.getReturnCode() / 100 == 4;
+        }
+        if (e instanceof MailConnectException) {
+            return true;
+        }
+        if (e instanceof AuthenticationFailedException || e instanceof SendFailedException) {
+            return false;
+        }
+        return e instanceof MessagingException messagingException
+                && (messagingException.getNextException() instanceof IOException || e.getCause() instanceof IOException);
+    }
+
+    private static Map<String, Exception> addressFailures(SendFailedException e) {
+        Map<String, Exception> failures = new HashMap<>();
+        for (Exception next = e.getNextException(); next != null;
+             next = next instanceof MessagingException ? ((MessagingException) next).getNextException() : null) {
+            if (next instanceof SMTPAddressFailedException addressFailed) {
+                failures.put(addressFailed.getAddress().getAddress(), addressFailed);
+            }
+        }
+        return failures;
+    }
+
+    private static Set<String> addresses(Address[] addresses) {
+        Set<String> result = new HashSet<>();
+        if (addresses != null) {
+            for (Address address : addresses) {
+                result.add(((InternetAddress) address).getAddress());
+            }
+        }
+        return result;
+    }
+
+    private void complete(DispatchSummary summary, InternetAddress[] addresses, boolean delivered, int attempts,
+                          long startNanos, String error) {
+        for (InternetAddress address : addresses) {
+            complete(summary, address, delivered, attempts, startNanos, error);
+        }
+    }
+
+    private void complete(DispatchSummary summary, InternetAddress address, boolean delivered, int attempts,
+                          long startNanos, String error) {
+        long latencyNanos = System.nanoTime() - startNanos;
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        Timer.builder("smtp.send")
+                .description("Per-recipient delivery latency, retries included")
+                .tag("outcome", delivered ? "delivered" : "failed")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(latencyNanos, TimeUnit.NANOSECONDS);
+        summary.add(new RecipientResult(address.getAddress(), delivered, attempts, latencyMs, error));
+        log.debug("Recipient {} {} after {} attempt(s) in {} ms", address.getAddress(),
+                delivered ? "delivered" : "failed", attempts, latencyMs);
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "email-dispatch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -4,16 +4,25 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.Address;
 import javax.mail.Message;
+import javax.mail.MessagingException;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
 import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.function.BiConsumer;
 
 @Service
 @Slf4j
@@ -31,80 +40,170 @@ public class EmailService {
     @Value("${smtp.password}")
     private String password;
 
+    @Value("${smtp.auth:true}")
+    private boolean auth;
+
+    @Value("${smtp.starttls:true}")
+    private boolean startTls;
+
+    @Value("${smtp.bcc-batch-size:0}")
+    private int bccBatchSize;
+
     private static final DateTimeFormatter MONTH_FORMATTER =
             DateTimeFormatter.ofPattern("LLLL", new Locale("ru"));
 
-    public void sendEmail(String email, String htmlBody) throws Exception {
-        try {
-            Properties properties = new Properties();
-            properties.put("mail.smtp.host", host);
-            properties.put("mail.smtp.port", port);
-            properties.put("mail.smtp.auth", "true");
-            properties.put("mail.smtp.starttls.enable", "true");
-
-            Session session = Session.getInstance(properties, new javax.mail.Authenticator() {
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    try {
-                        return new PasswordAuthentication(userName, password);
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
+    private volatile Session session;
+
+    private Session getSession() {
+        Session current = session;
+        if (current == null) {
+            synchronized (this) {
+                current = session;
+                if (current == null) {
+                    Properties properties = new Properties();
+                    properties.put("mail.smtp.host", host);
+                    properties.put("mail.smtp.port", port);
+                    properties.put("mail.smtp.auth", String.valueOf(auth));
+                    properties.put("mail.smtp.starttls.enable", String.valueOf(startTls));
+                    properties.put("mail.smtp.sendpartial", "true");
+
+                    current = Session.getInstance(properties, new javax.mail.Authenticator() {
+                        protected PasswordAuthentication getPasswordAuthentication() {
+                            try {
+                                return new PasswordAuthentication(userName, password);
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                    session = current;
                 }
-            });
+            }
+        }
+        return current;
+    }
 
-            String rawMonthName = LocalDate.now().format(MONTH_FORMATTER);
-            String capitalizedMonthName = rawMonthName.substring(0, 1).toUpperCase() + rawMonthName.substring(1);
+    private String buildSubject(String prefix) {
+        String rawMonthName = LocalDate.now().format(MONTH_FORMATTER);
+        String capitalizedMonthName = rawMonthName.substring(0, 1).toUpperCase() + rawMonthName.substring(1);
+        return prefix + capitalizedMonthName;
+    }
 
-            Message msg = new MimeMessage(session);
+    private MimeMessage createMessage(String subject, String htmlBody) throws MessagingException {
+        MimeMessage msg = new MimeMessage(getSession());
+        msg.setFrom(new InternetAddress(userName));
+        msg.setSubject(subject, "UTF-8");
+        msg.setSentDate(new java.util.Date());
+        msg.setContent(htmlBody, "text/html; charset=utf-8");
+        return msg;
+    }
 
-            msg.setFrom(new InternetAddress(userName));
+    private MimeMessage createMessage(String subject, DataSource htmlBody) throws MessagingException {
+        MimeMessage msg = new MimeMessage(getSession());
+        msg.setFrom(new InternetAddress(userName));
+        msg.setSubject(subject, "UTF-8");
+        msg.setSentDate(new java.util.Date());
+        // the body is streamed from its buffer, so the encoding is fixed instead of being detected by a full scan
+        msg.setDataHandler(new DataHandler(htmlBody));
+        msg.setHeader("Content-Type", htmlBody.getContentType());
+        msg.setHeader("Content-Transfer-Encoding", "base64");
+        return msg;
+    }
 
-            InternetAddress[] toAddresses = {new InternetAddress(email)};
+    /**
+     * The report with file attachments: a multipart/mixed message whose parts are read from their data sources
+     * each time it is written, so attachments are streamed from disk instead of being loaded.
+     */
+    private MimeMessage createMessage(String subject, DataSource htmlBody, List<? extends DataSource> attachments)
+            throws MessagingException {
+        if (attachments.isEmpty()) {
+            return createMessage(subject, htmlBody);
+        }
+        MimeMessage msg = new MimeMessage(getSession());
+        msg.setFrom(new InternetAddress(userName));
+        msg.setSubject(subject, "UTF-8");
+        msg.setSentDate(new java.util.Date());
+        MimeMultipart multipart = new MimeMultipart("mixed");
+        MimeBodyPart body = new MimeBodyPart();
+        body.setDataHandler(new DataHandler(htmlBody));
+        body.setHeader("Content-Type", htmlBody.getContentType());
+        body.setHeader("Content-Transfer-Encoding", "base64");
+        multipart.addBodyPart(body);
+        for (DataSource attachment : attachments) {
+            MimeBodyPart part = new MimeBodyPart();
+            part.setDataHandler(new DataHandler(attachment));
+            part.setHeader("Content-Type", attachment.getContentType());
+            part.setHeader("Content-Transfer-Encoding", "base64");
+            part.setFileName(attachment.getName());
+            multipart.addBodyPart(part);
+        }
+        msg.setContent(multipart);
+        return msg;
+    }
 
-            msg.setRecipients(Message.RecipientType.TO, toAddresses);
-            msg.setSubject("Отчет по покрытию за " + capitalizedMonthName);
-            msg.setSentDate(new java.util.Date());
+    List<InternetAddress[]> partition(List<String> emails, BiConsumer<String, String> invalidAddressHandler) {
+        List<InternetAddress[]> batches = new ArrayList<>();
+        int batchSize = bccBatchSize > 0 ? bccBatchSize : 1;
+        List<InternetAddress> batch = new ArrayList<>(batchSize);
+        for (String email : emails) {
+            try {
+                batch.add(new InternetAddress(email, true));
+            } catch (Exception e) {
+                invalidAddressHandler.accept(email, e.getMessage());
+                continue;
+            }
+            if (batch.size() == batchSize) {
+                batches.add(batch.toArray(new InternetAddress[0]));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch.toArray(new InternetAddress[0]));
+        }
+        return batches;
+    }
 
-            msg.setContent(htmlBody, "text/html; charset=utf-8");
+    MimeMessage createReportMessage(DataSource htmlBody, List<? extends DataSource> attachments)
+            throws MessagingException {
+        return createMessage(buildSubject("Отчет по покрытию за "), htmlBody, attachments);
+    }
 
-            Transport.send(msg);
-        } catch(Exception e) {
-            throw new Exception(e.getMessage());
+    Transport createTransport() throws MessagingException {
+        return getSession().getTransport("smtp");
+    }
+
+    void send(Transport transport, MimeMessage msg, InternetAddress[] addresses) throws MessagingException {
+        if (!transport.isConnected()) {
+            transport.connect(host, Integer.parseInt(port), userName, password);
         }
+        if (bccBatchSize > 0) {
+            msg.setRecipients(Message.RecipientType.TO, new Address[]{new InternetAddress(userName)});
+            msg.setRecipients(Message.RecipientType.BCC, addresses);
+        } else {
+            msg.setRecipients(Message.RecipientType.TO, addresses);
+        }
+        msg.saveChanges();
+        transport.sendMessage(msg, addresses);
     }
 
-    public void sendErrorEmail(String email) throws Exception {
+    static void closeQuietly(Transport transport) {
         try {
-            Properties properties = new Properties();
-            properties.put("mail.smtp.host", host);
-            properties.put("mail.smtp.port", port);
-            properties.put("mail.smtp.auth", "true");
-            properties.put("mail.smtp.starttls.enable", "true");
-
-            Session session = Session.getInstance(properties, new javax.mail.Authenticator() {
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    try {
-                        return new PasswordAuthentication(userName, password);
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            });
-
-            String rawMonthName = LocalDate.now().format(MONTH_FORMATTER);
-            String capitalizedMonthName = rawMonthName.substring(0, 1).toUpperCase() + rawMonthName.substring(1);
-
-            Message msg = new MimeMessage(session);
+            if (transport.isConnected()) {
+                transport.close();
+            }
+        } catch (MessagingException e) {
+            log.debug("Error closing SMTP transport: {}", e.getMessage());
+        }
+    }
 
-            msg.setFrom(new InternetAddress(userName));
+    public void sendErrorEmail(String email) throws Exception {
+        try {
+            Message msg = createMessage(buildSubject("ОШИБКА Отчет по покрытию за "),
+                    "При отправке отчета по покрытию произошла ошибка<br><br>");
 
             InternetAddress[] toAddresses = {new InternetAddress(email)};
 
             msg.setRecipients(Message.RecipientType.TO, toAddresses);
-            msg.setSubject("ОШИБКА Отчет по покрытию за " + capitalizedMonthName);
-            msg.setSentDate(new java.util.Date());
-
-            msg.setContent("При отправке отчета по покрытию произошла ошибка<br><br>", "text/html; charset=utf-8");
 
             Transport.send(msg);
         } catch (Exception e) {
@@ -1,25 +1,39 @@
 package rubbles.monitoring.coverage.adapter;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import rubbles.monitoring.coverage.db.DbAdapter;
-import rubbles.monitoring.coverage.model.CascadeCountQueryResult;
-import rubbles.monitoring.coverage.model.AvailableClientBaseQueryResult;
-import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
-import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
-
-import java.text.NumberFormat;
+import rubbles.monitoring.coverage.metrics.MetricsExporter;
+import rubbles.monitoring.coverage.model.CoverageData;
+import rubbles.monitoring.coverage.model.CoverageIndex;
+import rubbles.monitoring.coverage.model.ReportFilter;
+import rubbles.monitoring.coverage.refresh.MaterializedViewRefresher;
+import rubbles.monitoring.coverage.report.CoverageReportRenderer;
+import rubbles.monitoring.coverage.report.HtmlBody;
+import rubbles.monitoring.coverage.schedule.ScheduledReport;
+import rubbles.monitoring.coverage.snapshot.SnapshotStore;
+import rubbles.monitoring.coverage.snapshot.TrendColumns;
+
+import java.sql.Array;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
-public class MonitoringCoverageAdapter {
+public class MonitoringCoverageAdapter implements ScheduledReport {
 
     @Autowired
     private DbAdapter dbAdapter;
@@ -27,146 +41,92 @@ public class MonitoringCoverageAdapter {
     @Autowired
     private EmailService emailService;
 
-    @Value("${db.tables.monitoring-recipients}")
-    private String MONITORING_RECIPIENTS;
+    @Autowired
+    private EmailDispatcher emailDispatcher;
 
-    public void run() {
-        List<AvailableClientBaseQueryResult> availableClientBaseDate = Collections.emptyList();
-        List<CommunicationCoverageQueryResult> communicationCoverageData = Collections.emptyList();
-        List<OfferCoverageQueryResult> offerCoverageData = Collections.emptyList();
-        List<CascadeCountQueryResult> cascadeCountData = Collections.emptyList();
+    @Autowired
+    private CoverageCollector coverageCollector;
 
-        try {
-            // Collecting data for monitoring
-            log.info("Getting data for monitoring from DB...");
+    @Autowired
+    private CoverageReportRenderer reportRenderer;
 
-            // Available client base data
-            try {
-                log.info("Getting available client base data...");
-                availableClientBaseDate = dbAdapter.selectAvailableClientBaseData();
-                if (!availableClientBaseDate.isEmpty()) {
-                    log.info("Successfully received available client base data ({} records).", availableClientBaseDate.size());
-                    for (AvailableClientBaseQueryResult row : availableClientBaseDate) {
-                        log.debug("Brand: {}, Total Clients: {}, Available Clients: {}, Email Count: {}, SMS Count: {}, Email & SMS Count: {}, Email %: {}, SMS %: {}, Email & SMS %: {}",
-                                row.getBrand(),
-                                row.getTotalClientsCount(),
-                                row.getAvailableClientCount(),
-                                row.getEmailCount(),
-                                row.getSmsCount(),
-                                row.getEmailAndSmsCount(),
-                                row.getEmailPercentage(),
-                                row.getSmsPercentage(),
-                                row.getEmailAndSmsPercentage()
-                        );
-                    }
-                } else {
-                    log.warn("Didn't get any available client base data from DB.");
-                }
-            } catch (Exception e) {
-                log.error("Error getting available client base data from DB: {}", e.getMessage(), e);
-            }
+    @Autowired
+    private SnapshotStore snapshotStore;
 
-            // Communication coverage data
-            try {
-                log.info("Getting communication coverage data...");
-                communicationCoverageData = dbAdapter.selectCommunicationCoverageData();
-                if (!communicationCoverageData.isEmpty()) {
-                    log.info("Successfully received communication coverage data ({} records).", communicationCoverageData.size());
-                    for (CommunicationCoverageQueryResult row : communicationCoverageData) {
-                        log.debug("Brand: {}, Type: {}, Channel: {}, Client Count: {}, Unique Client Count: {}, Communications Per Client: {}, Coverage: {}",
-                                row.getBrand(),
-                                row.getType(),
-                                row.getChannel(),
-                                row.getCommCount(),
-                                row.getUniqueClientCount(),
-                                row.getCommunicationsPerClient(),
-                                row.getCoverage()
-                        );
-                    }
-                } else {
-                    log.warn("Didn't get any communication coverage data from DB.");
-                }
-            } catch (Exception e) {
-                log.error("Error getting communication coverage data from DB: {}", e.getMessage(), e);
-            }
+    @Autowired
+    private MeterRegistry meterRegistry;
 
-            // Offer coverage data
-            try {
-                log.info("Getting offer coverage data...");
-                offerCoverageData = dbAdapter.selectOfferCoverageData();
-                if (!offerCoverageData.isEmpty()) {
-                    log.info("Successfully received offer coverage data ({} records).", offerCoverageData.size());
-                    for (OfferCoverageQueryResult row : offerCoverageData) {
-                        log.debug("Brand: {}, Offer count: {}, Unique clients with offer: {}, Offers with comm: {}, Unique clients with offer and comm: {}, Available base: {}, Offer coverage: {}, Offer with comm coverage: {}",
-                                row.getBrand(),
-                                row.getOfferCount(),
-                                row.getUniqueClientsWithOffer(),
-                                row.getOffersWithComm(),
-                                row.getUniqueClientsWithOfferAndComm(),
-                                row.getAvailableBase(),
-                                row.getOfferCoverage(),
-                                row.getOfferWithCommCoverage()
-                        );
-                    }
-                } else {
-                    log.warn("Didn't get any offer coverage data from DB.");
-                }
-            } catch (Exception e) {
-                log.error("Error getting offer coverage data from DB: {}", e.getMessage(), e);
-            }
+    @Autowired
+    private MetricsExporter metricsExporter;
 
-            // Cascade count data
-            try {
-                log.info("Getting cascade count data...");
-                cascadeCountData = dbAdapter.selectCascadeCountData();
-                if (!cascadeCountData.isEmpty()) {
-                    log.info("Successfully received cascade count data ({} records).", cascadeCountData.size());
-                    for (CascadeCountQueryResult row : cascadeCountData) {
-                        log.debug("Message desc: {}, GZ count: {}, 366 count: {}, total: {}",
-                                row.getMessageDesc(),
-                                row.getGzCount(),
-                                row.getAptekaCount(),
-                                row.getTotal()
-                        );
-                    }
-                } else {
-                    log.warn("Didn't get any cascade count data from DB.");
-                }
-            } catch (Exception e) {
-                log.error("Error getting cascade count data from DB: {}", e.getMessage(), e);
-            }
+    @Autowired
+    private AttachmentBuilder attachmentBuilder;
 
-            // Building email content and sending it to recipients
-            log.info("Building email content...");
-            String emailContent = buildEmailContent(availableClientBaseDate, communicationCoverageData, offerCoverageData, cascadeCountData);
-            log.debug("Email content: {}", emailContent);
+    @Autowired
+    private MaterializedViewRefresher viewRefresher;
 
-            log.info("Getting recipient list from table \"{}\"...", MONITORING_RECIPIENTS);
-            List<String> recipients = dbAdapter.getRecipients()
-                    .stream()
-                    .map(row -> (String) row.get("EMAIL"))
-                    .toList();
-            log.debug("Received {} recipients from DB.", recipients.size());
+    @Value("${db.tables.monitoring-recipients}")
+    private String MONITORING_RECIPIENTS;
 
-            if (!recipients.isEmpty()) {
-                String recipientsList = recipients.stream()
-                        .map(email -> "\"" + email + "\"")
-                        .collect(Collectors.joining(", "));
-                log.debug("Full recipients list: [{}]", recipientsList);
+    @Value("${snapshot.trend-periods:3}")
+    private int trendPeriods;
 
-                log.info("Starting sending emails to recipients...");
-                for (String email : recipients) {
-                    try {
-                        log.debug("Sending coverage monitoring to recipient with email: {}", email);
-                        emailService.sendEmail(email, emailContent);
-                        log.debug("Coverage monitoring to recipient with mail \"{}\" has been successfully sent.", email);
-                    } catch (Exception e) {
-                        log.error("Failed to send email to {}: {}", email, e.getMessage(), e);
-                        try {
-                            log.info("Sending error email to recipient with mail: {}", email);
-                            emailService.sendErrorEmail(email);
-                        } catch (Exception mail) {
-                            log.error("Failed to send error email to {}: {}", email, mail.getMessage(), mail);
+    @Override
+    public String getName() {
+        return "coverage";
+    }
+
+    @Override
+    public void run() {
+        try {
+            // Refreshing the materialized views the section queries read from
+            refreshViews();
+
+            // Collecting data for monitoring
+            CoverageData coverageData = coverageCollector.collect();
+            if (!coverageData.getTimedOutSections().isEmpty()) {
+                log.warn("Sections {} timed out, the report will be sent without them.", coverageData.getTimedOutSections());
+            }
+
+            // Saving the snapshot of this run, previous months are read back for the trend columns
+            TrendColumns trends = saveSnapshot(coverageData);
+
+            log.info("Getting recipient list from table \"{}\"...", MONITORING_RECIPIENTS);
+            Map<ReportFilter, List<String>> recipientsByFilter = groupByFilter(dbAdapter.getRecipients());
+            int recipientCount = recipientsByFilter.values().stream().mapToInt(List::size).sum();
+            log.debug("Received {} recipients from DB.", recipientCount);
+
+            if (recipientCount > 0) {
+                // one email content per distinct filter, built from the data collected above
+                CoverageIndex index = new CoverageIndex(coverageData);
+                log.info("Building {} email variant(s) for {} recipients...", recipientsByFilter.size(), recipientCount);
+                try (DetailAttachments attachments = buildAttachments(recipientsByFilter.keySet())) {
+                    for (Map.Entry<ReportFilter, List<String>> entry : recipientsByFilter.entrySet()) {
+                        ReportFilter filter = entry.getKey();
+                        List<String> recipients = entry.getValue();
+                        DetailAttachments.Variant variant = attachments.get(filter);
+                        HtmlBody emailContent = render(index.select(filter), trends, variant.getNotices());
+                        log.info("Email content for {} is {} bytes with {} attachment(s).", filter, emailContent.size(),
+                                variant.getAttachments().size());
+                        log.debug("Email content: {}", emailContent);
+
+                        String recipientsList = recipients.stream()
+                                .map(email -> "\"" + email + "\"")
+                                .collect(Collectors.joining(", "));
+                        log.debug("Full recipients list for {}: [{}]", filter, recipientsList);
+
+                        log.info("Starting sending emails to {} recipient(s)...", recipients.size());
+                        DispatchSummary dispatchSummary = emailDispatcher.dispatch(recipients, emailContent,
+                                variant.getAttachments());
+                        for (DispatchSummary.RecipientResult failure : dispatchSummary.getFailed()) {
+                            String email = failure.getEmail();
+                            log.error("Failed to send email to {} after {} attempt(s): {}", email, failure.getAttempts(), failure.getError());
+                            try {
+                                log.info("Sending error email to recipient with mail: {}", email);
+                                emailService.sendErrorEmail(email);
+                            } catch (Exception mail) {
+                                log.error("Failed to send error email to {}: {}", email, mail.getMessage(), mail);
+                            }
                         }
                     }
                 }
@@ -176,241 +136,84 @@ public class MonitoringCoverageAdapter {
             }
         } catch (Exception e) {
             log.error("An unexpected error occurred during monitoring process: {}", e.getMessage(), e);
+        } finally {
+            metricsExporter.export();
         }
     }
 
-    public String buildEmailContent(List<AvailableClientBaseQueryResult> availableClientBaseData,
-                                    List<CommunicationCoverageQueryResult> communicationCoverageData,
-                                    List<OfferCoverageQueryResult> offerCoverageData,
-                                    List<CascadeCountQueryResult> cascadeCountData) {
-        final Map<String, String> MONTH_TRANSLATIONS = Map.ofEntries(
-                Map.entry("January", "Январь"),
-                Map.entry("February", "Февраль"),
-                Map.entry("March", "Март"),
-                Map.entry("April", "Апрель"),
-                Map.entry("May", "Май"),
-                Map.entry("June", "Июнь"),
-                Map.entry("July", "Июль"),
-                Map.entry("August", "Август"),
-                Map.entry("September", "Сентябрь"),
-                Map.entry("October", "Октябрь"),
-                Map.entry("November", "Ноябрь"),
-                Map.entry("December", "Декабрь")
-        );
-        StringBuilder message = new StringBuilder();
-        message.append("<html><head><style>")
-                .append("  table { border-collapse: collapse; margin: 20px 0; }")
-                .append("  th, td { border: 1px solid #ddd; padding: 8px 12px; text-align: left; }")
-                .append("  th { background-color: #f2f2f2; }")
-                .append("  th.main { background-color: #c0c0c0; text-align: center;}")
-                .append("  td.amount { text-align: right; }")
-                .append("</style></head><body>")
-                .append("<h4>Добрый день!</h4>")
-                .append("<p>В таблицах ниже представлены данные по покрытию за текущий месяц.</p>")
-                .append("<p>Доступные клиенты: Клиенты, не входящие в ГКГ.</p>")
-                .append("<p>Покрытие = Количество уникальных клиентов c коммуникацией / Доступность соответствующего канала.</p>");
-
-        message.append(availableClientBaseTableContent(availableClientBaseData));
-        message.append(communicationCoverageTableContent(communicationCoverageData));
-        message.append(offerCoverageTableContent(offerCoverageData));
-        message.append(cascadeCountTableContent(cascadeCountData));
-
-        message.append("</body></html>");
-        return message.toString();
-    }
-
-    private String availableClientBaseTableContent(List<AvailableClientBaseQueryResult> availableClientBaseData) {
-        String tableHeader = "Доступная база";
-        String[] headers = {
-                "Бренд",
-                "Всего клиентов",
-                "Доступные клиенты",
-                "Доступен EMAIL",
-                "Доступен SMS",
-                "Доступен EMAIL или SMS",
-                "Доля EMAIL от доступных",
-                "Доля SMS от доступных",
-                "Доля EMAIL или SMS от доступных"
-        };
-        StringBuilder tableContent = new StringBuilder();
-        int displayedColumnCount = headers.length;
-
-        tableContent.append("<table border='1'>");
-        tableContent.append("<tr>").append("<th colspan='").append(displayedColumnCount).append("' class=\"main\">").append(tableHeader).append("</th>").append("</tr>");
-
-        if (availableClientBaseData == null || availableClientBaseData.isEmpty()) {
-            tableContent.append("<tr><td colspan='").append(displayedColumnCount).append("'>Нет данных для отображения</td></tr>");
-        } else {
-            tableContent.append("<tr>");
-            for (String header : headers) {
-                tableContent.append("<th>").append(header).append("</th>");
-            }
-            tableContent.append("</tr>");
-
-            for (AvailableClientBaseQueryResult row : availableClientBaseData) {
-                tableContent.append("<tr>")
-                        .append("<td>").append(row.getBrand()).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getTotalClientsCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getAvailableClientCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getEmailCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getSmsCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getEmailAndSmsCount())).append("</td>")
-                        .append("<td>").append(row.getEmailPercentage()).append("</td>")
-                        .append("<td>").append(row.getSmsPercentage()).append("</td>")
-                        .append("<td>").append(row.getEmailAndSmsPercentage()).append("</td>")
-                        .append("</tr>");
-            }
+    /**
+     * Recipients by the filter of their optional {@code BRANDS} and {@code CHANNELS} columns, given as comma
+     * separated text or as an array; recipients without them get the full report.
+     */
+    private static Map<ReportFilter, List<String>> groupByFilter(List<Map<String, Object>> rows) throws SQLException {
+        Map<ReportFilter, List<String>> recipients = new LinkedHashMap<>();
+        for (Map<String, Object> row : rows) {
+            ReportFilter filter = new ReportFilter(values(row.get("BRANDS")), values(row.get("CHANNELS")));
+            recipients.computeIfAbsent(filter, key -> new ArrayList<>()).add((String) row.get("EMAIL"));
         }
-        tableContent.append("</table>");
-        return tableContent.toString();
+        return recipients;
     }
 
-    private String communicationCoverageTableContent(List<CommunicationCoverageQueryResult> communicationCoverageData) {
-        String tableHeader = "Покрытие коммуникациями";
-        String[] headers = {
-                "Бренд",
-                "Тип коммуникации",
-                "Канал коммуникации",
-                "Количество клиентов c коммуникацией",
-                "Количество уникальных клиентов c коммуникацией",
-                "Количество коммуникаций на клиента",
-                "Покрытие"
-        };
-        StringBuilder tableContent = new StringBuilder();
-        int displayedColumnCount = headers.length;
-
-        tableContent.append("<table border='1'>");
-        tableContent.append("<tr>").append("<th colspan='").append(displayedColumnCount).append("' class=\"main\">").append(tableHeader).append("</th>").append("</tr>");
-
-        if (communicationCoverageData == null || communicationCoverageData.isEmpty()) {
-            tableContent.append("<tr><td colspan='").append(displayedColumnCount).append("'>Нет данных для отображения</td></tr>");
-        } else {
-            tableContent.append("<tr>");
-            for (String header : headers) {
-                tableContent.append("<th>").append(header).append("</th>");
-            }
-            tableContent.append("</tr>");
-
-            for (CommunicationCoverageQueryResult row : communicationCoverageData) {
-                tableContent.append("<tr>")
-                        .append("<td>").append(escapeHtml(row.getBrand())).append("</td>")
-                        .append("<td>").append(escapeHtml(row.getType())).append("</td>")
-                        .append("<td>").append(escapeHtml(row.getChannel())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getCommCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getUniqueClientCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(row.getCommunicationsPerClient()).append("</td>")
-                        .append("<td>").append(escapeHtml(row.getCoverage())).append("</td>")
-                        .append("</tr>");
-            }
+    private static List<String> values(Object value) throws SQLException {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Array array) {
+            return Arrays.stream((Object[]) array.getArray()).map(String::valueOf).toList();
         }
-        tableContent.append("</table>");
-        return tableContent.toString();
+        return Arrays.asList(value.toString().split(","));
     }
 
-    private String offerCoverageTableContent(List<OfferCoverageQueryResult> offerCoverageData) {
-        String tableHeader = "Покрытие офферами";
-        String[] headers = {
-                "Бренд",
-                "Доступная база",
-                "Количество офферов",
-                "Количество уникальных клиентов с оффером",
-                "Количество офферов с коммуникацией",
-                "Количество уникальных клиентов с оффером и коммуникацией",
-                "Покрытие по офферам",
-                "Покрытие по офферам с коммуникацией"
-        };
-        StringBuilder tableContent = new StringBuilder();
-        int displayedColumnCount = headers.length;
-        tableContent.append("<table border='1'>");
-        tableContent.append("<tr>").append("<th colspan='").append(displayedColumnCount).append("' class=\"main\">").append(tableHeader).append("</th>").append("</tr>");
-        if (offerCoverageData == null || offerCoverageData.isEmpty()) {
-            tableContent.append("<tr><td colspan='").append(displayedColumnCount).append("'>Нет данных для отображения</td></tr>");
-        } else {
-            tableContent.append("<tr>");
-            for (String header : headers) {
-                tableContent.append("<th>").append(header).append("</th>");
-            }
-            tableContent.append("</tr>");
-            for (OfferCoverageQueryResult row : offerCoverageData) {
-                tableContent.append("<tr>")
-                        .append("<td>").append(escapeHtml(row.getBrand())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getAvailableBase())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getOfferCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getUniqueClientsWithOffer())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getOffersWithComm())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getUniqueClientsWithOfferAndComm())).append("</td>")
-                        .append("<td>").append(escapeHtml(row.getOfferCoverage())).append("</td>")
-                        .append("<td>").append(escapeHtml(row.getOfferWithCommCoverage())).append("</td>")
-                        .append("</tr>");
-            }
+    private void refreshViews() {
+        if (!viewRefresher.isEnabled()) {
+            return;
+        }
+        try {
+            viewRefresher.refresh();
+        } catch (Exception e) {
+            log.error("Error refreshing materialized views, the report will be built from them as they are: {}",
+                    e.getMessage(), e);
         }
-        tableContent.append("</table>");
-        return tableContent.toString();
     }
 
-    private String cascadeCountTableContent(List<CascadeCountQueryResult> cascadeCountData) {
-        String tableHeader = "Количество отправленных СМС/ПУШ";
-        String[] headers = {
-                "Метрика",
-                "ГОРЗДРАВ",
-                "366",
-                "Всего"
-        };
-        StringBuilder tableContent = new StringBuilder();
-        int displayedColumnCount = headers.length;
-        tableContent.append("<table border='1'>");
-        tableContent.append("<tr>").append("<th colspan='").append(displayedColumnCount).append("' class=\"main\">").append(tableHeader).append("</th>").append("</tr>");
-
-        if (cascadeCountData == null || cascadeCountData.isEmpty()) {
-            tableContent.append("<tr><td colspan='").append(displayedColumnCount).append("'>Нет данных для отображения</td></tr>");
-        } else {
-            tableContent.append("<tr>");
-            for (String header : headers) {
-                tableContent.append("<th>").append(header).append("</th>");
-            }
-            tableContent.append("</tr>");
-
-            for (CascadeCountQueryResult row : cascadeCountData) {
-                tableContent.append("<tr>")
-                        .append("<td>").append(escapeHtml(row.getMessageDesc())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getGzCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getAptekaCount())).append("</td>")
-                        .append("<td class=\"amount\">").append(formatAmount(row.getTotal())).append("</td>")
-                        .append("</tr>");
-            }
+    private DetailAttachments buildAttachments(Collection<ReportFilter> filters) {
+        if (!attachmentBuilder.isEnabled()) {
+            return DetailAttachments.NONE;
+        }
+        log.info("Building detail attachments...");
+        try {
+            return attachmentBuilder.build(filters, LocalDate.now());
+        } catch (Exception e) {
+            log.error("Error building detail attachments, the report will be sent without them: {}", e.getMessage(), e);
+            return DetailAttachments.NONE;
         }
-        tableContent.append("</table>");
-        return tableContent.toString();
     }
 
-    private static final NumberFormat NUMBER_FORMAT = createNumberFormat();
-
-    private static NumberFormat createNumberFormat() {
-        NumberFormat numberFormat = NumberFormat.getNumberInstance(new Locale("ru", "RU"));
-        numberFormat.setGroupingUsed(true);
-        numberFormat.setMaximumFractionDigits(0);
-        numberFormat.setMinimumFractionDigits(0);
-        return numberFormat;
+    private HtmlBody render(CoverageData coverageData, TrendColumns trends, List<String> notices) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        HtmlBody emailContent = reportRenderer.render(coverageData, trends, notices);
+        sample.stop(Timer.builder("coverage.render")
+                .description("Time to build the email content")
+                .register(meterRegistry));
+        DistributionSummary.builder("coverage.render.size")
+                .description("Size of the built email content")
+                .baseUnit("bytes")
+                .register(meterRegistry)
+                .record(emailContent.size());
+        return emailContent;
     }
 
-    private String formatAmount(Long amount) {
-        if (amount == null) return "N/A";
+    private TrendColumns saveSnapshot(CoverageData coverageData) {
+        if (!snapshotStore.isEnabled()) {
+            return null;
+        }
+        LocalDate runDate = LocalDate.now();
         try {
-            return NUMBER_FORMAT.format(amount);
+            snapshotStore.append(runDate, coverageData);
+            return new TrendColumns(snapshotStore, runDate, trendPeriods);
         } catch (Exception e) {
-            log.error("Error formatting amount: {}", amount, e);
-            return "Ошибка";
-        }
-    }
-
-    private String escapeHtml(String input) {
-        if (input == null) {
-            return "";
+            log.error("Error saving coverage snapshot, trend columns won't be shown: {}", e.getMessage(), e);
+            return null;
         }
-        return input.replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;")
-                .replace("\"", "&quot;")
-                .replace("'", "&#39;");
     }
-}
\ No newline at end of file
+}
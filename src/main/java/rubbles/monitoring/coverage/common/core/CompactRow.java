@@ -0,0 +1,315 @@
+package rubbles.monitoring.coverage.common.core;
+
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map backed by a shared {@link RowSchema} and flat value arrays instead of a hashtable of entries.
+ * Keys outside the schema go to a small overflow map. A put that does not fit the column kind or names a column in
+ * another case, or the removal of a schema column, turns the row into a plain map so that map semantics are always
+ * kept. Keys are case-insensitive
+ * throughout, like those of the {@link LinkedCaseInsensitiveMap}s of {@code queryForList}, and stay so after that
+ * switch.
+ */
+public class CompactRow extends AbstractMap<String, Object> {
+    private final RowSchema schema;
+    private final Object[] objects;
+    private final long[] primitives;
+    private long nulls;
+    private LinkedCaseInsensitiveMap<Object> extra;
+    private LinkedCaseInsensitiveMap<Object> fallback;
+
+    public CompactRow(RowSchema schema) {
+        this.schema = schema;
+        this.objects = new Object[schema.objectCount()];
+        this.primitives = new long[schema.primitiveCount()];
+    }
+
+    private CompactRow(CompactRow source) {
+        this.schema = source.schema;
+        this.objects = source.objects.clone();
+        this.primitives = source.primitives.clone();
+        this.nulls = source.nulls;
+        this.extra = source.extra == null ? null : copy(source.extra);
+    }
+
+    /**
+     * A mutable copy of {@code data} that keeps the compact layout when there is one.
+     */
+    public static Map<String, Object> copyOf(Map<String, Object> data) {
+        if (data instanceof CompactRow row) {
+            return row.fallback == null ? new CompactRow(row) : copy(row);
+        }
+        return new LinkedHashMap<>(data);
+    }
+
+    /**
+     * The entries of {@code base} overwritten by those of {@code overlay}, ordered as {@code LinkedHashMap.putAll}
+     * would order them.
+     */
+    public static Map<String, Object> merge(Map<String, Object> base, Map<String, Object> overlay) {
+        if (base instanceof CompactRow left && overlay instanceof CompactRow right && left.isPure() && right.isPure()) {
+            RowSchema.Join join = left.schema.join(right.schema);
+            CompactRow merged = new CompactRow(join.schema);
+            for (int column = 0; column < join.sources.length; column++) {
+                int source = join.sources[column];
+                if (source >= 0) {
+                    merged.copyColumn(column, left, source);
+                } else {
+                    merged.copyColumn(column, right, -source - 1);
+                }
+            }
+            return merged;
+        }
+        Map<String, Object> merged = base instanceof CompactRow ? copy(base) : new LinkedHashMap<>(base);
+        merged.putAll(overlay);
+        return merged;
+    }
+
+    private static LinkedCaseInsensitiveMap<Object> copy(Map<String, Object> data) {
+        LinkedCaseInsensitiveMap<Object> map = new LinkedCaseInsensitiveMap<>(data.size());
+        map.putAll(data);
+        return map;
+    }
+
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    private boolean isPure() {
+        return fallback == null && (extra == null || extra.isEmpty());
+    }
+
+    public Object getColumn(int column) {
+        int slot = schema.slot(column);
+        return switch (schema.kind(column)) {
+            case OBJECT -> objects[slot];
+            case LONG -> isNull(slot) ? null : primitives[slot];
+            case INT -> isNull(slot) ? null : (int) primitives[slot];
+        };
+    }
+
+    public void setObject(int column, Object value) {
+        objects[schema.slot(column)] = value;
+    }
+
+    public void setPrimitive(int column, long value, boolean isNull) {
+        int slot = schema.slot(column);
+        primitives[slot] = value;
+        if (isNull) {
+            nulls |= 1L << slot;
+        } else {
+            nulls &= ~(1L << slot);
+        }
+    }
+
+    private boolean isNull(int slot) {
+        return (nulls & (1L << slot)) != 0;
+    }
+
+    private void copyColumn(int column, CompactRow source, int sourceColumn) {
+        if (schema.kind(column) == RowSchema.Kind.OBJECT) {
+            setObject(column, source.getColumn(sourceColumn));
+        } else {
+            int sourceSlot = source.schema.slot(sourceColumn);
+            setPrimitive(column, source.primitives[sourceSlot], source.isNull(sourceSlot));
+        }
+    }
+
+    private boolean trySet(int column, Object value) {
+        switch (schema.kind(column)) {
+            case OBJECT -> setObject(column, value);
+            case LONG -> {
+                if (value != null && !(value instanceof Long)) {
+                    return false;
+                }
+                setPrimitive(column, value == null ? 0 : (Long) value, value == null);
+            }
+            case INT -> {
+                if (value != null && !(value instanceof Integer)) {
+                    return false;
+                }
+                setPrimitive(column, value == null ? 0 : (Integer) value, value == null);
+            }
+        }
+        return true;
+    }
+
+    private LinkedCaseInsensitiveMap<Object> toFallback() {
+        if (fallback == null) {
+            LinkedCaseInsensitiveMap<Object> map = new LinkedCaseInsensitiveMap<>();
+            for (int column = 0; column < schema.size(); column++) {
+                map.put(schema.name(column), getColumn(column));
+            }
+            if (extra != null) {
+                map.putAll(extra);
+                extra = null;
+            }
+            fallback = map;
+        }
+        return fallback;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (fallback != null) {
+            return fallback.get(key);
+        }
+        int column = schema.indexOf(key);
+        if (column >= 0) {
+            return getColumn(column);
+        }
+        return extra == null ? null : extra.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (fallback != null) {
+            return fallback.containsKey(key);
+        }
+        return schema.indexOf(key) >= 0 || extra != null && extra.containsKey(key);
+    }
+
+    /**
+     * Whether the row has a key equal to {@code key}, not only one that differs in case.
+     */
+    boolean containsExactKey(Object key) {
+        if (fallback != null) {
+            return fallback.keySet().stream().anyMatch(name -> name.equals(key));
+        }
+        int column = schema.indexOf(key);
+        if (column >= 0) {
+            return schema.name(column).equals(key);
+        }
+        return extra != null && extra.keySet().stream().anyMatch(name -> name.equals(key));
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (fallback != null) {
+            return fallback.put(key, value);
+        }
+        int column = schema.indexOf(key);
+        if (column < 0) {
+            if (extra == null) {
+                extra = new LinkedCaseInsensitiveMap<>();
+            }
+            return extra.put(key, value);
+        }
+        Object previous = getColumn(column);
+        // a key of another case renames the column and moves it to the end, as in LinkedCaseInsensitiveMap
+        if (!schema.name(column).equals(key) || !trySet(column, value)) {
+            toFallback().put(key, value);
+        }
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (fallback != null) {
+            return fallback.remove(key);
+        }
+        int column = schema.indexOf(key);
+        if (column >= 0) {
+            return toFallback().remove(schema.name(column));
+        }
+        return extra == null ? null : extra.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        fallback = new LinkedCaseInsensitiveMap<>();
+        extra = null;
+    }
+
+    @Override
+    public int size() {
+        if (fallback != null) {
+            return fallback.size();
+        }
+        return schema.size() + (extra == null ? 0 : extra.size());
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return fallback != null ? fallback.entrySet().iterator() : new KeyOrderIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactRow.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates a snapshot of the key order and reads values through the map, so removal during iteration stays
+     * correct even when it switches the row to its fallback map.
+     */
+    private class KeyOrderIterator implements Iterator<Entry<String, Object>> {
+        private final List<String> keys;
+        private int next;
+        private String current;
+
+        KeyOrderIterator() {
+            keys = new ArrayList<>(size());
+            for (int column = 0; column < schema.size(); column++) {
+                keys.add(schema.name(column));
+            }
+            if (extra != null) {
+                keys.addAll(extra.keySet());
+            }
+            advance();
+        }
+
+        private void advance() {
+            while (next < keys.size() && !containsKey(keys.get(next))) {
+                next++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.size();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = keys.get(next++);
+            advance();
+            String key = current;
+            return new SimpleEntry<>(key, get(key)) {
+                @Override
+                public Object setValue(Object value) {
+                    super.setValue(value);
+                    return put(key, value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            CompactRow.this.remove(current);
+            current = null;
+            advance();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package rubbles.monitoring.coverage.common.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-through view of a child map over its parent's map, used by {@link Processor#enrich} instead of copying the
+ * parent data into every child. Reads and iteration behave like a {@code LinkedHashMap} built from the parent and then
+ * {@code putAll} of the child; puts go to the child layer. Removing a parent key copies the view into a flat map first.
+ * <p>
+ * Like in that {@code LinkedHashMap}, a child value only replaces the parent entry of the exact same key, even when
+ * the layers are case-insensitive {@link CompactRow}s or {@code queryForList} rows: parent {@code clientId} and child
+ * {@code clientid} are two entries, and {@code get("clientId")} is the parent value. A key neither layer has exactly
+ * is looked up with the layers' own matching, parent first; puts follow the matching of the child layer.
+ * <p>
+ * The parent layer is shared between all children and copies, so it must not be modified once it has been enriched.
+ */
+public class OverlayMap extends AbstractMap<String, Object> {
+    static final int MAX_DEPTH = 8;
+
+    private final Map<String, Object> base;
+    private Map<String, Object> top;
+    private final int depth;
+    private Map<String, Object> flat;
+
+    private OverlayMap(Map<String, Object> base, Map<String, Object> top, int depth) {
+        this.base = base;
+        this.top = top;
+        this.depth = depth;
+    }
+
+    public static Map<String, Object> over(Map<String, Object> base, Map<String, Object> top) {
+        int depth = 1;
+        if (base instanceof OverlayMap overlay && overlay.flat == null) {
+            depth = overlay.depth + 1;
+            if (depth > MAX_DEPTH) {
+                // keeps lookups in long processor chains from walking every layer
+                base = overlay.flatten();
+                depth = 1;
+            }
+        }
+        return new OverlayMap(base, top, depth);
+    }
+
+    /**
+     * A copy that shares the parent layer and copies only the child layer.
+     */
+    public Map<String, Object> copy() {
+        if (flat != null) {
+            return CompactRow.copyOf(flat);
+        }
+        return new OverlayMap(base, CompactRow.copyOf(top), depth);
+    }
+
+    private Map<String, Object> flatten() {
+        for (String key : top.keySet()) {
+            if (base.containsKey(key) && !containsExactKey(base, key)) {
+                // a case-insensitive merge would fold the two entries into one
+                Map<String, Object> flat = new LinkedHashMap<>(base.size() + top.size());
+                for (Entry<String, Object> entry : entrySet()) {
+                    flat.put(entry.getKey(), entry.getValue());
+                }
+                return flat;
+            }
+        }
+        return CompactRow.merge(base, top);
+    }
+
+    private static boolean containsExactKey(Map<String, Object> map, Object key) {
+        if (!map.containsKey(key)) {
+            return false;
+        }
+        if (map instanceof HashMap) {
+            return true;
+        }
+        if (map instanceof CompactRow row) {
+            return row.containsExactKey(key);
+        }
+        if (map instanceof OverlayMap overlay) {
+            return overlay.flat != null ? containsExactKey(overlay.flat, key)
+                    : containsExactKey(overlay.top, key) || containsExactKey(overlay.base, key);
+        }
+        return map.keySet().stream().anyMatch(name -> name.equals(key));
+    }
+
+    private Map<String, Object> writable() {
+        if (flat == null) {
+            flat = flatten();
+            top = null;
+        }
+        return flat;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (flat != null) {
+            return flat.get(key);
+        }
+        if (containsExactKey(top, key) || !base.containsKey(key)) {
+            return top.get(key);
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (flat != null) {
+            return flat.containsKey(key);
+        }
+        return top.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (flat != null) {
+            return flat.put(key, value);
+        }
+        Object previous = get(key);
+        top.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (flat == null && !base.containsKey(key)) {
+            return top.remove(key);
+        }
+        return writable().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        flat = new LinkedHashMap<>();
+        top = null;
+    }
+
+    @Override
+    public int size() {
+        if (flat != null) {
+            return flat.size();
+        }
+        int size = base.size();
+        for (String key : top.keySet()) {
+            if (!containsExactKey(base, key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return flat != null ? flat.entrySet().iterator() : new LayerIterator();
+            }
+
+            @Override
+            public int size() {
+                return OverlayMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Parent keys in parent order with child values winning, then the child's own keys.
+     */
+    private class LayerIterator implements Iterator<Entry<String, Object>> {
+        private final Map<String, Object> baseLayer = base;
+        private final Map<String, Object> topLayer = top;
+        private final Iterator<String> baseKeys = baseLayer.keySet().iterator();
+        private Iterator<String> topKeys;
+        private Entry<String, Object> next;
+        private Entry<String, Object> last;
+        private boolean lastFromTop;
+
+        private void advance() {
+            if (baseKeys.hasNext()) {
+                String key = baseKeys.next();
+                Object value = containsExactKey(topLayer, key) ? topLayer.get(key) : baseLayer.get(key);
+                next = entry(key, value);
+                return;
+            }
+            if (topKeys == null) {
+                // created late, so that setValue on parent keys can add them to the child layer meanwhile
+                topKeys = topLayer.keySet().iterator();
+            }
+            while (topKeys.hasNext()) {
+                String key = topKeys.next();
+                if (!containsExactKey(baseLayer, key)) {
+                    next = entry(key, topLayer.get(key));
+                    return;
+                }
+            }
+        }
+
+        private Entry<String, Object> entry(String key, Object value) {
+            return new SimpleEntry<>(key, value) {
+                @Override
+                public Object setValue(Object value) {
+                    super.setValue(value);
+                    return put(key, value);
+                }
+            };
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            lastFromTop = topKeys != null;
+            next = null;
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            if (lastFromTop && flat == null) {
+                // a key of the child layer alone, removed through its iterator to keep iterating valid
+                topKeys.remove();
+            } else {
+                OverlayMap.this.remove(last.getKey());
+            }
+            last = null;
+        }
+    }
+}
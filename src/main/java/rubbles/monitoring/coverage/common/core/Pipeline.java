@@ -0,0 +1,286 @@
+package rubbles.monitoring.coverage.common.core;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import rubbles.monitoring.coverage.common.core.PipelineStats.StageStats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs a {@link Supplier} through a chain of {@link Processor}s into a {@link Consumer}.
+ * <p>
+ * Stages are connected by bounded queues, so a slow stage blocks the ones before it. Every stage runs on its own
+ * daemon worker threads. The supplier signals the end of input by returning {@code null}.
+ * A message that fails in a processor or consumer, with an exception or an error, goes to the error handler and the
+ * pipeline carries on. A stage that stops for any reason still shuts down the next one, so {@link #run} returns.
+ * In ordered mode the consumer sees results in supplier order. At most {@code queueCapacity} supplier messages
+ * are in flight then, which bounds the reorder buffer.
+ * <pre>
+ * PipelineStats stats = Pipeline.from(supplier)
+ *         .enrich("clients", clientProcessor, 8)
+ *         .ordered(true)
+ *         .run("drill-down", consumer, 1);
+ * </pre>
+ */
+@Slf4j
+public class Pipeline<T extends Message> {
+    private static final Envelope POISON = new Envelope(-1, List.of());
+
+    private final Supplier<? extends Message> supplier;
+    private final List<StageSpec> stages = new ArrayList<>();
+    private int queueCapacity = 1024;
+    private boolean ordered;
+    private ErrorHandler errorHandler = (stage, message, e) ->
+            log.error("pipeline stage {} failed on {}: {}", stage, message, e.getMessage(), e);
+
+    private Pipeline(Supplier<? extends Message> supplier) {
+        this.supplier = supplier;
+    }
+
+    public static <T extends Message> Pipeline<T> from(Supplier<T> supplier) {
+        return new Pipeline<>(supplier);
+    }
+
+    public <R extends Message> Pipeline<R> apply(String name, Processor<T, R> processor, int parallelism) {
+        return stage(name, processor::apply, parallelism);
+    }
+
+    public <R extends Message> Pipeline<R> enrich(String name, Processor<T, R> processor, int parallelism) {
+        return stage(name, processor::enrich, parallelism);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R extends Message> Pipeline<R> stage(String name, Function<T, List<R>> function, int parallelism) {
+        stages.add(new StageSpec(name, message -> (List<Message>) function.apply((T) message), Math.max(1, parallelism)));
+        return (Pipeline<R>) this;
+    }
+
+    public Pipeline<T> queueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        return this;
+    }
+
+    public Pipeline<T> ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    public Pipeline<T> onError(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    /**
+     * Runs the pipeline to completion on the calling thread's behalf. In ordered mode the consumer runs on one thread.
+     */
+    @SuppressWarnings("unchecked")
+    public PipelineStats run(String name, Consumer<T> consumer, int parallelism) {
+        long startNanos = System.nanoTime();
+        PipelineStats stats = new PipelineStats(name);
+        Semaphore window = ordered ? new Semaphore(queueCapacity) : null;
+        int consumerParallelism = ordered ? 1 : Math.max(1, parallelism);
+
+        List<BlockingQueue<Envelope>> queues = new ArrayList<>();
+        for (int i = 0; i <= stages.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        int[] workers = new int[stages.size() + 1];
+        for (int i = 0; i < stages.size(); i++) {
+            workers[i] = stages.get(i).parallelism;
+        }
+        workers[stages.size()] = consumerParallelism;
+
+        List<Thread> threads = new ArrayList<>();
+        StageStats sourceStats = stats.addStage("source", 1);
+        threads.add(thread(name + "-source", () -> source(sourceStats, queues.get(0), workers[0], window)));
+        for (int i = 0; i < stages.size(); i++) {
+            StageSpec stage = stages.get(i);
+            StageStats stageStats = stats.addStage(stage.name, stage.parallelism);
+            BlockingQueue<Envelope> in = queues.get(i);
+            BlockingQueue<Envelope> out = queues.get(i + 1);
+            int nextWorkers = workers[i + 1];
+            AtomicInteger remaining = new AtomicInteger(stage.parallelism);
+            for (int w = 0; w < stage.parallelism; w++) {
+                threads.add(thread(name + "-" + stage.name + "-" + (w + 1),
+                        () -> process(stage, stageStats, in, out, remaining, nextWorkers)));
+            }
+        }
+        StageStats consumerStats = stats.addStage("consumer", consumerParallelism);
+        BlockingQueue<Envelope> last = queues.get(stages.size());
+        for (int w = 0; w < consumerParallelism; w++) {
+            threads.add(thread(name + "-consumer-" + (w + 1),
+                    () -> consume((Consumer<Message>) consumer, consumerStats, last, window)));
+        }
+
+        threads.forEach(Thread::start);
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new CommonException("pipeline " + name + " interrupted", e, CommonException.INTERRUPTED);
+        }
+        stats.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        for (StageStats stage : stats.getStages()) {
+            log.info("pipeline {} stage {} x{} : {} in, {} out, {} errors, {} msg/s per worker", name, stage.getName(),
+                    stage.getParallelism(), stage.getIn(), stage.getOut(), stage.getErrors(),
+                    Math.round(stage.getThroughput()));
+        }
+        log.info("pipeline {} took {} ms", name, stats.getElapsedMs());
+        return stats;
+    }
+
+    private void source(StageStats stats, BlockingQueue<Envelope> out, int nextWorkers, Semaphore window) {
+        long seq = 0;
+        try {
+            while (true) {
+                if (window != null) {
+                    window.acquire();
+                }
+                long startNanos = System.nanoTime();
+                Message message;
+                try {
+                    message = supplier.get();
+                } catch (Throwable e) {
+                    stats.errors.increment();
+                    handleError("source", null, e);
+                    break;
+                } finally {
+                    stats.busyNanos.add(System.nanoTime() - startNanos);
+                }
+                if (message == null) {
+                    break;
+                }
+                stats.in.increment();
+                stats.out.increment();
+                out.put(new Envelope(seq++, List.of(message)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            poison(out, nextWorkers);
+        }
+    }
+
+    private void process(StageSpec stage, StageStats stats, BlockingQueue<Envelope> in, BlockingQueue<Envelope> out,
+                         AtomicInteger remaining, int nextWorkers) {
+        try {
+            for (Envelope envelope = in.take(); envelope != POISON; envelope = in.take()) {
+                long startNanos = System.nanoTime();
+                List<Message> results = new ArrayList<>();
+                for (Message message : envelope.values) {
+                    stats.in.increment();
+                    try {
+                        results.addAll(stage.function.apply(message));
+                    } catch (Throwable e) {
+                        stats.errors.increment();
+                        handleError(stage.name, message, e);
+                    }
+                }
+                stats.busyNanos.add(System.nanoTime() - startNanos);
+                stats.out.add(results.size());
+                // forwarded even when empty, so that ordered delivery never waits for a missing sequence number
+                out.put(new Envelope(envelope.seq, results));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (remaining.decrementAndGet() == 0) {
+                poison(out, nextWorkers);
+            }
+        }
+    }
+
+    private void consume(Consumer<Message> consumer, StageStats stats, BlockingQueue<Envelope> in, Semaphore window) {
+        Map<Long, Envelope> pending = new HashMap<>();
+        long next = 0;
+        try {
+            for (Envelope envelope = in.take(); envelope != POISON; envelope = in.take()) {
+                if (window == null) {
+                    deliver(consumer, stats, envelope);
+                    continue;
+                }
+                pending.put(envelope.seq, envelope);
+                for (Envelope ready = pending.remove(next); ready != null; ready = pending.remove(next)) {
+                    deliver(consumer, stats, ready);
+                    window.release();
+                    next++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliver(Consumer<Message> consumer, StageStats stats, Envelope envelope) {
+        long startNanos = System.nanoTime();
+        for (Message message : envelope.values) {
+            stats.in.increment();
+            try {
+                consumer.accept(message);
+                stats.out.increment();
+            } catch (Throwable e) {
+                stats.errors.increment();
+                handleError("consumer", message, e);
+            }
+        }
+        stats.busyNanos.add(System.nanoTime() - startNanos);
+    }
+
+    private void handleError(String stage, Message message, Throwable e) {
+        try {
+            errorHandler.handle(stage, message, e);
+        } catch (Throwable handlerError) {
+            log.error("pipeline error handler failed for stage {}", stage, handlerError);
+        }
+    }
+
+    /**
+     * Tells the workers of the next stage that no more input comes. An interrupted worker cannot wait for room in the
+     * queue; {@link #run} interrupts them all then.
+     */
+    private static void poison(BlockingQueue<Envelope> out, int workers) {
+        try {
+            for (int i = 0; i < workers; i++) {
+                out.put(POISON);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Thread thread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @FunctionalInterface
+    public interface ErrorHandler {
+        void handle(String stage, Message message, Throwable e);
+    }
+
+    @AllArgsConstructor
+    private static class StageSpec {
+        private final String name;
+        private final Function<Message, List<Message>> function;
+        private final int parallelism;
+    }
+
+    @AllArgsConstructor
+    private static class Envelope {
+        private final long seq;
+        private final List<Message> values;
+    }
+}
@@ -0,0 +1,72 @@
+package rubbles.monitoring.coverage.common.core;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+@Getter
+public class PipelineStats {
+    private final String name;
+    private final List<StageStats> stages = new ArrayList<>();
+    private long elapsedMs;
+
+    PipelineStats(String name) {
+        this.name = name;
+    }
+
+    StageStats addStage(String stageName, int parallelism) {
+        StageStats stage = new StageStats(stageName, parallelism);
+        stages.add(stage);
+        return stage;
+    }
+
+    void setElapsedMs(long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+
+    public long getErrors() {
+        return stages.stream().mapToLong(StageStats::getErrors).sum();
+    }
+
+    @Getter
+    public static class StageStats {
+        private final String name;
+        private final int parallelism;
+        final LongAdder in = new LongAdder();
+        final LongAdder out = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+
+        StageStats(String name, int parallelism) {
+            this.name = name;
+            this.parallelism = parallelism;
+        }
+
+        public long getIn() {
+            return in.sum();
+        }
+
+        public long getOut() {
+            return out.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getBusyMs() {
+            return TimeUnit.NANOSECONDS.toMillis(busyNanos.sum());
+        }
+
+        /**
+         * Messages handled per second of worker time, i.e. the rate one worker of this stage sustains.
+         */
+        public double getThroughput() {
+            long busy = busyNanos.sum();
+            return busy == 0 ? 0 : in.sum() * 1e9 / busy;
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package rubbles.monitoring.coverage.common.core;
 
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 public interface Processor<T extends Message, R extends Message> {
     List<R> apply(T message);
@@ -10,9 +8,7 @@ public interface Processor<T extends Message, R extends Message> {
     default List<R> enrich(T message) {
         List<R> result = apply(message);
         for (R item : result) {
-            Map<String, Object> data = new LinkedHashMap<>(message.getData());
-            data.putAll(item.getData());
-            item.setData(data);
+            item.setData(OverlayMap.over(message.getData(), item.getData()));
         }
         return result;
     }
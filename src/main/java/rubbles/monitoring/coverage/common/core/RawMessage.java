@@ -17,11 +17,15 @@ public class RawMessage {
     private Map<String, Object> data = new LinkedHashMap<>();
 
     public RawMessage(Map<String, Object> data) {
-        this.data = data != null ? new LinkedHashMap<>(data) : null;
+        this.data = data != null ? copy(data) : null;
     }
 
     public RawMessage(RawMessage message) {
-        this.data = new LinkedHashMap<>(message.data);
+        this.data = copy(message.data);
+    }
+
+    private static Map<String, Object> copy(Map<String, Object> data) {
+        return data instanceof OverlayMap overlay ? overlay.copy() : CompactRow.copyOf(data);
     }
 
     @JsonIgnore
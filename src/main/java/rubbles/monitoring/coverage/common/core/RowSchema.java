@@ -0,0 +1,141 @@
+package rubbles.monitoring.coverage.common.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned column layout shared by all {@link CompactRow}s of one result shape. {@code LONG} and {@code INT} columns
+ * are stored unboxed; column lookup is exact first and case-insensitive second, like the maps of
+ * {@code queryForList}.
+ */
+public final class RowSchema {
+    public enum Kind {
+        OBJECT, LONG, INT
+    }
+
+    static final int MAX_PRIMITIVES = 64;
+
+    private static final Map<List<Object>, RowSchema> INTERNED = new ConcurrentHashMap<>();
+
+    private final String[] names;
+    private final Kind[] kinds;
+    private final int[] slots;
+    private final int objectCount;
+    private final int primitiveCount;
+    private final Map<String, Integer> exact = new HashMap<>();
+    private final Map<String, Integer> lowerCase = new HashMap<>();
+    private final Map<RowSchema, Join> joins = new ConcurrentHashMap<>();
+
+    private RowSchema(String[] names, Kind[] kinds) {
+        this.names = names;
+        this.kinds = kinds;
+        this.slots = new int[names.length];
+        int objects = 0;
+        int primitives = 0;
+        for (int i = 0; i < names.length; i++) {
+            // null flags of primitive columns live in one long
+            if (kinds[i] != Kind.OBJECT && primitives == MAX_PRIMITIVES) {
+                kinds[i] = Kind.OBJECT;
+            }
+            slots[i] = kinds[i] == Kind.OBJECT ? objects++ : primitives++;
+            exact.putIfAbsent(names[i], i);
+            lowerCase.putIfAbsent(names[i].toLowerCase(), i);
+        }
+        this.objectCount = objects;
+        this.primitiveCount = primitives;
+    }
+
+    /**
+     * The shared schema for these columns; names must be unique ignoring case.
+     */
+    public static RowSchema of(String[] names, Kind[] kinds) {
+        List<Object> key = new ArrayList<>(names.length * 2);
+        key.addAll(Arrays.asList(names));
+        key.addAll(Arrays.asList(kinds));
+        return INTERNED.computeIfAbsent(key, k -> new RowSchema(names.clone(), kinds.clone()));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int column) {
+        return names[column];
+    }
+
+    public Kind kind(int column) {
+        return kinds[column];
+    }
+
+    public int indexOf(Object name) {
+        Integer index = exact.get(name);
+        if (index == null && name instanceof String string) {
+            index = lowerCase.get(string.toLowerCase());
+        }
+        return index == null ? -1 : index;
+    }
+
+    int slot(int column) {
+        return slots[column];
+    }
+
+    int objectCount() {
+        return objectCount;
+    }
+
+    int primitiveCount() {
+        return primitiveCount;
+    }
+
+    /**
+     * Layout of {@code this} with {@code overlay} put on top, as {@code LinkedCaseInsensitiveMap.putAll} would order
+     * it: own columns first, overlay values winning, overlay columns that are new appended. An overlay column that
+     * differs in case only replaces the own column and is appended under its name.
+     */
+    Join join(RowSchema overlay) {
+        return joins.computeIfAbsent(overlay, o -> {
+            List<String> joinedNames = new ArrayList<>();
+            List<Kind> joinedKinds = new ArrayList<>();
+            List<Integer> sources = new ArrayList<>();
+            for (int i = 0; i < names.length; i++) {
+                int overlayColumn = o.indexOf(names[i]);
+                if (overlayColumn < 0) {
+                    joinedNames.add(names[i]);
+                    joinedKinds.add(kinds[i]);
+                    sources.add(i);
+                } else if (o.names[overlayColumn].equals(names[i])) {
+                    joinedNames.add(names[i]);
+                    joinedKinds.add(o.kinds[overlayColumn]);
+                    sources.add(-overlayColumn - 1);
+                }
+            }
+            for (int i = 0; i < o.names.length; i++) {
+                int column = indexOf(o.names[i]);
+                if (column < 0 || !names[column].equals(o.names[i])) {
+                    joinedNames.add(o.names[i]);
+                    joinedKinds.add(o.kinds[i]);
+                    sources.add(-i - 1);
+                }
+            }
+            return new Join(of(joinedNames.toArray(new String[0]), joinedKinds.toArray(new Kind[0])),
+                    sources.stream().mapToInt(Integer::intValue).toArray());
+        });
+    }
+
+    static final class Join {
+        final RowSchema schema;
+        /**
+         * Per joined column: the base column, or {@code -overlayColumn - 1}.
+         */
+        final int[] sources;
+
+        private Join(RowSchema schema, int[] sources) {
+            this.schema = schema;
+            this.sources = sources;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package rubbles.monitoring.coverage.common.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for one table. Rows are accepted from any thread and inserted in batches of {@code batchSize}
+ * when a batch fills up or when the oldest buffered row is older than the batch timeout.
+ * At most {@code capacity} rows are buffered or being inserted: {@link #put} blocks and {@link #offer} times out when
+ * the buffer is full.
+ * <p>
+ * A batch that fails in a background flush is lost; its error is kept and thrown by the next {@link #put},
+ * {@link #offer}, {@link #flush} or {@link #close}.
+ */
+@Slf4j
+public class BatchWriter implements AutoCloseable {
+    private final DbService dbService;
+    private final String tableName;
+    private final int batchSize;
+    private final long batchTimeoutNanos;
+    private final Executor flushExecutor;
+
+    private final Queue<Map<String, ?>> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore permits;
+    private final AtomicInteger buffered = new AtomicInteger();
+    private final AtomicLong oldestNanos = new AtomicLong(Long.MAX_VALUE);
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicReference<RuntimeException> flushFailure = new AtomicReference<>();
+    private volatile boolean closed;
+
+    BatchWriter(DbService dbService, String tableName, int batchSize, long batchTimeoutMs, int capacity,
+                Executor flushExecutor) {
+        this.dbService = dbService;
+        this.tableName = tableName;
+        this.batchSize = batchSize;
+        this.batchTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(batchTimeoutMs);
+        this.permits = new Semaphore(Math.max(capacity, batchSize));
+        this.flushExecutor = flushExecutor;
+    }
+
+    public void put(Map<String, ?> row) throws InterruptedException {
+        checkOpen();
+        throwFlushFailure();
+        permits.acquire();
+        enqueue(row);
+    }
+
+    public boolean offer(Map<String, ?> row, long timeout, TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        throwFlushFailure();
+        if (!permits.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        enqueue(row);
+        return true;
+    }
+
+    private void enqueue(Map<String, ?> row) {
+        queue.add(row);
+        oldestNanos.compareAndSet(Long.MAX_VALUE, System.nanoTime());
+        if (buffered.incrementAndGet() % batchSize == 0) {
+            flushExecutor.execute(this::flushFullBatches);
+        }
+    }
+
+    /**
+     * Inserts everything buffered so far; failed batches, including those of earlier background flushes, are
+     * rethrown to the caller.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            while (buffered.get() > 0) {
+                writeBatch();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        throwFlushFailure();
+    }
+
+    void flushFullBatches() {
+        flushInBackground(batchSize);
+    }
+
+    void flushExpired() {
+        if (buffered.get() > 0 && System.nanoTime() - oldestNanos.get() >= batchTimeoutNanos) {
+            flushExecutor.execute(() -> flushInBackground(1));
+        }
+    }
+
+    /**
+     * Writes batches while at least {@code minRows} are buffered. A flush already running for this table takes the
+     * rows instead, so a writer never holds more than one thread of the shared flush pool.
+     */
+    private void flushInBackground(int minRows) {
+        if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            while (buffered.get() >= minRows) {
+                writeBatch();
+            }
+        } catch (RuntimeException e) {
+            keepFlushFailure(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void writeBatch() {
+        List<Map<String, ?>> batch = new ArrayList<>(Math.min(buffered.get(), batchSize));
+        Map<String, ?> row;
+        while (batch.size() < batchSize && (row = queue.poll()) != null) {
+            batch.add(row);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        oldestNanos.set(queue.isEmpty() ? Long.MAX_VALUE : System.nanoTime());
+        buffered.addAndGet(-batch.size());
+        try {
+            dbService.simpleBatchInsert(tableName, batch);
+            written.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            failed.addAndGet(batch.size());
+            throw e;
+        } finally {
+            // rows in flight still count against the capacity
+            permits.release(batch.size());
+        }
+    }
+
+    private void keepFlushFailure(RuntimeException e) {
+        log.error("error flushing batch to {}", tableName, e);
+        RuntimeException kept = flushFailure.getAndUpdate(current -> current != null ? current : e);
+        if (kept != null) {
+            kept.addSuppressed(e);
+        }
+    }
+
+    private void throwFlushFailure() {
+        RuntimeException e = flushFailure.getAndSet(null);
+        if (e != null) {
+            throw new DbException("background flush to " + tableName + " failed, " + failed.get()
+                    + " rows were not written", e, DbException.INSERT_ERROR);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("batch writer for " + tableName + " is closed");
+        }
+    }
+
+    public int getBuffered() {
+        return buffered.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flush();
+        } finally {
+            log.info("batch writer [{}] closed: {} rows written, {} rows failed", tableName, written.get(),
+                    failed.get());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package rubbles.monitoring.coverage.common.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
+import rubbles.monitoring.coverage.common.core.CommonException;
+import rubbles.monitoring.coverage.common.core.CompactRow;
+import rubbles.monitoring.coverage.common.core.Message;
+import rubbles.monitoring.coverage.common.core.Processor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * {@link QueryProcessor} that looks up many messages with one query. Concurrent {@link #apply} calls are gathered
+ * until {@code batchSize} messages are waiting or the oldest has waited {@code maxWaitMs}; sequential callers
+ * should use {@link #applyAll}. The query gets the message ids as {@code :ids}, either expanded into an
+ * {@code in (:ids)} list or bound as an array for {@code = any(:ids)}, and every row is routed back to its message
+ * by {@code idColumn}.
+ */
+@Slf4j
+public class BatchingQueryProcessor implements Processor<Message, Message> {
+    private static final Pattern ANY_IDS = Pattern.compile("any\\s*\\(\\s*:ids\\b", Pattern.CASE_INSENSITIVE);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String sql;
+    private final String idColumn;
+    private final boolean required;
+    private final int batchSize;
+    private final long maxWaitMs;
+    private final Function<String, ?> idConverter;
+    private final boolean arrayParameter;
+
+    private final Object lock = new Object();
+    private List<Pending> current = new ArrayList<>();
+
+    public BatchingQueryProcessor(NamedParameterJdbcTemplate jdbcTemplate, String sql, String idColumn, boolean required,
+                                  int batchSize, long maxWaitMs) {
+        this(jdbcTemplate, sql, idColumn, required, batchSize, maxWaitMs, Function.identity());
+    }
+
+    public BatchingQueryProcessor(NamedParameterJdbcTemplate jdbcTemplate, String sql, String idColumn, boolean required,
+                                  int batchSize, long maxWaitMs, Function<String, ?> idConverter) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+        this.idColumn = idColumn;
+        this.required = required;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxWaitMs = maxWaitMs;
+        this.idConverter = idConverter;
+        this.arrayParameter = ANY_IDS.matcher(sql).find();
+    }
+
+    @Override
+    public List<Message> apply(Message message) {
+        Pending pending = new Pending(message);
+        List<Pending> batch = null;
+        synchronized (lock) {
+            current.add(pending);
+            pending.batch = current;
+            if (current.size() >= batchSize) {
+                batch = current;
+                current = new ArrayList<>();
+            }
+        }
+        if (batch == null) {
+            try {
+                return pending.result.get(maxWaitMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                synchronized (lock) {
+                    if (pending.batch == current) {
+                        batch = current;
+                        current = new ArrayList<>();
+                    }
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                return rethrow(e);
+            }
+        }
+        if (batch != null) {
+            execute(batch);
+        }
+        try {
+            return pending.result.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return rethrow(e);
+        }
+    }
+
+    /**
+     * Looks up all {@code messages} in chunks of {@code batchSize}; the result lists follow the order of the input.
+     */
+    public List<List<Message>> applyAll(List<Message> messages) {
+        List<List<Message>> results = new ArrayList<>(messages.size());
+        for (int from = 0; from < messages.size(); from += batchSize) {
+            List<Pending> batch = new ArrayList<>();
+            for (Message message : messages.subList(from, Math.min(from + batchSize, messages.size()))) {
+                batch.add(new Pending(message));
+            }
+            execute(batch);
+            for (Pending pending : batch) {
+                try {
+                    results.add(pending.result.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    rethrow(e);
+                }
+            }
+        }
+        return results;
+    }
+
+    private void execute(List<Pending> batch) {
+        try {
+            Set<String> ids = new LinkedHashSet<>();
+            for (Pending pending : batch) {
+                ids.add(pending.message.getId());
+            }
+            List<Object> keys = ids.stream().map(idConverter).map(Object.class::cast).toList();
+            MapSqlParameterSource parameters = new MapSqlParameterSource("ids", arrayParameter
+                    ? new IdArray(keys.toArray())
+                    : keys);
+            if (arrayParameter) {
+                parameters.registerSqlType("ids", Types.ARRAY);
+            }
+            List<Map<String, Object>> rows = jdbcTemplate.query(sql, parameters, new CompactRowMapper());
+
+            Map<String, List<Map<String, Object>>> rowsById = new HashMap<>();
+            for (Map<String, Object> row : rows) {
+                rowsById.computeIfAbsent(String.valueOf(row.get(idColumn)), k -> new ArrayList<>()).add(row);
+            }
+            log.debug("batch of {} messages ({} ids) retrieved {} rows", batch.size(), ids.size(), rows.size());
+
+            Set<String> claimed = new HashSet<>();
+            for (Pending pending : batch) {
+                String id = pending.message.getId();
+                List<Map<String, Object>> found = rowsById.getOrDefault(id, Collections.emptyList());
+                // the first message with an id takes the loaded maps, duplicates get their own copies
+                boolean copy = !claimed.add(id);
+                List<Message> result = new ArrayList<>(found.size());
+                for (Map<String, Object> map : found) {
+                    Message row = new Message(id);
+                    row.setData(copy ? CompactRow.copyOf(map) : map);
+                    result.add(row);
+                }
+                if (result.isEmpty() && !required) {
+                    result = Collections.singletonList(new Message(id));
+                }
+                pending.result.complete(result);
+            }
+        } catch (Exception e) {
+            for (Pending pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static List<Message> rethrow(Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            throw new CommonException("interrupted waiting for batched query", e, CommonException.INTERRUPTED);
+        }
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        throw new DbException("error selecting batch from db", cause, DbException.SELECT_ERROR);
+    }
+
+    private static class Pending {
+        private final Message message;
+        private final CompletableFuture<List<Message>> result = new CompletableFuture<>();
+        private List<Pending> batch;
+
+        Pending(Message message) {
+            this.message = message;
+        }
+    }
+
+    private static class IdArray extends AbstractSqlTypeValue {
+        private final Object[] ids;
+
+        IdArray(Object[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        protected Object createTypeValue(Connection connection, int sqlType, String typeName) throws SQLException {
+            String elementType = ids.length > 0 && ids[0] instanceof Number ? "bigint" : "varchar";
+            return connection.createArrayOf(elementType, ids);
+        }
+    }
+}
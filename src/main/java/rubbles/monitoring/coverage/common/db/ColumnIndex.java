@@ -0,0 +1,62 @@
+package rubbles.monitoring.coverage.common.db;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+
+public class ColumnIndex {
+    private final Map<String, Integer> indexes;
+    private final String[] names;
+
+    public ColumnIndex(ResultSetMetaData metaData) throws SQLException {
+        int count = metaData.getColumnCount();
+        this.indexes = new LinkedCaseInsensitiveMap<>(count);
+        this.names = new String[count];
+        for (int i = 1; i <= count; i++) {
+            String name = JdbcUtils.lookupColumnName(metaData, i);
+            names[i - 1] = name;
+            indexes.putIfAbsent(name, i);
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int index) {
+        return names[index - 1];
+    }
+
+    public int indexOf(String column) {
+        Integer index = indexes.get(column);
+        if (index == null) {
+            throw new DbException("Column not found in result set: " + column, DbException.SELECT_ERROR);
+        }
+        return index;
+    }
+
+    public int indexOfOptional(String column) {
+        return indexes.getOrDefault(column, 0);
+    }
+
+    public static Long getLong(ResultSet rs, int index) throws SQLException {
+        if (index == 0) {
+            return null;
+        }
+        long value = rs.getLong(index);
+        return rs.wasNull() ? null : value;
+    }
+
+    public static BigDecimal getBigDecimal(ResultSet rs, int index) throws SQLException {
+        return index == 0 ? null : rs.getBigDecimal(index);
+    }
+
+    public static String getString(ResultSet rs, int index) throws SQLException {
+        return index == 0 ? null : rs.getString(index);
+    }
+}
@@ -0,0 +1,74 @@
+package rubbles.monitoring.coverage.common.db;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import rubbles.monitoring.coverage.common.core.CompactRow;
+import rubbles.monitoring.coverage.common.core.RowSchema;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps rows to {@link CompactRow}s sharing one schema, with the same keys and values {@code queryForList} produces.
+ * The schema is bound on the first row, so an instance serves a single query.
+ */
+public class CompactRowMapper implements RowMapper<Map<String, Object>> {
+    private RowSchema schema;
+    private int[] targets;
+
+    @Override
+    public Map<String, Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
+        if (schema == null) {
+            bind(rs.getMetaData());
+        }
+        CompactRow row = new CompactRow(schema);
+        for (int i = 0; i < targets.length; i++) {
+            int column = targets[i];
+            switch (schema.kind(column)) {
+                case LONG -> {
+                    long value = rs.getLong(i + 1);
+                    row.setPrimitive(column, value, rs.wasNull());
+                }
+                case INT -> {
+                    int value = rs.getInt(i + 1);
+                    row.setPrimitive(column, value, rs.wasNull());
+                }
+                default -> row.setObject(column, JdbcUtils.getResultSetValue(rs, i + 1));
+            }
+        }
+        return row;
+    }
+
+    private void bind(ResultSetMetaData metaData) throws SQLException {
+        int count = metaData.getColumnCount();
+        targets = new int[count];
+        List<String> names = new ArrayList<>(count);
+        List<RowSchema.Kind> kinds = new ArrayList<>(count);
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 1; i <= count; i++) {
+            String name = JdbcUtils.lookupColumnName(metaData, i);
+            RowSchema.Kind kind = switch (metaData.getColumnType(i)) {
+                case Types.BIGINT -> RowSchema.Kind.LONG;
+                case Types.INTEGER -> RowSchema.Kind.INT;
+                default -> RowSchema.Kind.OBJECT;
+            };
+            // a repeated column name keeps its first position and its last value, as in a LinkedCaseInsensitiveMap
+            Integer position = positions.putIfAbsent(name.toLowerCase(), names.size());
+            if (position == null) {
+                targets[i - 1] = names.size();
+                names.add(name);
+                kinds.add(kind);
+            } else {
+                targets[i - 1] = position;
+                kinds.set(position, kind);
+            }
+        }
+        schema = RowSchema.of(names.toArray(new String[0]), kinds.toArray(new RowSchema.Kind[0]));
+    }
+}
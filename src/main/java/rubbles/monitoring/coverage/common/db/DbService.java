@@ -1,28 +1,86 @@
 package rubbles.monitoring.coverage.common.db;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 import org.springframework.lang.NonNull;
+import org.springframework.transaction.support.TransactionTemplate;
+import rubbles.monitoring.coverage.common.core.RawMessage;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Slf4j
-public class DbService {
+public class DbService implements AutoCloseable {
     private static final int MAX_SQL_LOG_LEN = 500;
+    private static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final long DEFAULT_BATCH_TIMEOUT_MS = 1000;
+    private static final int FLUSH_THREADS = 4;
+    private static final long DEFAULT_STREAM_BUFFER_BYTES = 8L * 1024 * 1024;
+    private static final int MIN_STREAM_FETCH_SIZE = 100;
+    private static final int MAX_STREAM_FETCH_SIZE = 100000;
+    private static final int STREAM_SAMPLE_ROWS = 64;
 
     private final DataSource dataSource;
     private final NamedParameterJdbcTemplate jdbcTemplate;
-    @Autowired
     public final ObjectMapper objectMapper;
 
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long batchTimeoutMs = DEFAULT_BATCH_TIMEOUT_MS;
+    private int bufferCapacity = DEFAULT_BATCH_SIZE * 4;
+    private final Map<String, SimpleJdbcInsert> inserts = new ConcurrentHashMap<>();
+    private final Map<String, BatchWriter> writers = new ConcurrentHashMap<>();
+    private final Map<String, String[]> copyColumnTypes = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService flushScheduler;
+    private volatile ExecutorService flushExecutor;
+    private QueryCache queryCache;
+    private MeterRegistry meterRegistry;
+    private long streamBufferBytes = DEFAULT_STREAM_BUFFER_BYTES;
+    private final Map<String, String> queryNames = new ConcurrentHashMap<>();
+
     public DbService(DataSource dataSource, ObjectMapper objectMapper) {
         this.dataSource = dataSource;
         this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
@@ -46,6 +104,15 @@ public class DbService {
         }
     }
 
+    public DbService(DataSource dataSource, ObjectMapper objectMapper,
+                     NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                     int batchSize, long batchTimeoutMs, int bufferCapacity) {
+        this(dataSource, objectMapper, namedParameterJdbcTemplate);
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.batchTimeoutMs = batchTimeoutMs > 0 ? batchTimeoutMs : DEFAULT_BATCH_TIMEOUT_MS;
+        this.bufferCapacity = Math.max(bufferCapacity, this.batchSize);
+    }
+
     private static String truncate(String sql) {
         sql = sql.replace('\n', ' ');
         if (sql.length() > MAX_SQL_LOG_LEN) {
@@ -62,26 +129,189 @@ public class DbService {
         Instant startDttm = Instant.now();
         log.trace("using sql {}", truncate(sql));
         log.trace("using row {}", parameter.getValues());
-        List<Map<String, Object>> result;
+        List<Map<String, Object>> result = null;
         try {
-            result = jdbcTemplate.queryForList(sql, parameter);
+            result = QueryHandle.current() == null
+                    ? jdbcTemplate.queryForList(sql, parameter)
+                    : query(sql, parameter, new RowMapperResultSetExtractor<>(new ColumnMapRowMapper()));
             log.debug("got result {}", result);
         } catch (Exception e) {
             throw new DbException("error selecting from db", e, DbException.SELECT_ERROR);
         } finally {
             log.info("query [{}] took {} ms", truncate(sql),
                     Duration.between(startDttm, Instant.now()).toMillis());
+            record("select", sql, startDttm, result != null, result == null ? -1 : result.size());
         }
         return result;
     }
 
+    /**
+     * Like {@link #select(String, Map)}, but served from the query cache when one is set.
+     * The returned rows are shared with other callers and must not be modified.
+     */
+    public List<Map<String, Object>> selectCached(String sql, Map<String, Object> map) {
+        if (queryCache == null) {
+            return select(sql, map);
+        }
+        return queryCache.get(sql, map, () -> select(sql, map).stream()
+                .map(Collections::unmodifiableMap)
+                .toList());
+    }
+
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Approximate size of one fetched batch {@link #stream} aims for.
+     */
+    public void setStreamBufferBytes(long streamBufferBytes) {
+        this.streamBufferBytes = streamBufferBytes > 0 ? streamBufferBytes : DEFAULT_STREAM_BUFFER_BYTES;
+    }
+
+    /**
+     * Name the {@code db.query} metrics of {@code sql} are tagged with; queries without a name are tagged
+     * {@code other}, so that SQL text never ends up in a tag.
+     */
+    public void registerQueryName(String sql, String name) {
+        if (sql != null && !sql.isEmpty()) {
+            queryNames.put(sql, name);
+        }
+    }
+
+    private void record(String operation, String sql, Instant startDttm, boolean success, long rows) {
+        if (meterRegistry == null) {
+            return;
+        }
+        String query = queryNames.getOrDefault(sql, "other");
+        Timer.builder("db.query")
+                .description("Execution time of database queries")
+                .tags("query", query, "operation", operation, "outcome", success ? "success" : "error")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(Duration.between(startDttm, Instant.now()));
+        if (success && rows >= 0) {
+            DistributionSummary.builder("db.query.rows")
+                    .description("Rows returned or written by database queries")
+                    .tags("query", query, "operation", operation)
+                    .register(meterRegistry)
+                    .record(rows);
+        }
+    }
+
+    public <T> List<T> select(String sql, Map<String, Object> map, IndexedRowMapper<T> rowMapper) {
+        List<T> result = new ArrayList<>();
+        select(sql, map, rowMapper, result::add);
+        return result;
+    }
+
+    public <T> void select(String sql, Map<String, Object> map, IndexedRowMapper<T> rowMapper,
+                           Consumer<? super T> rowHandler) {
+        Instant startDttm = Instant.now();
+        log.trace("using sql {}", truncate(sql));
+        log.trace("using row {}", map);
+        int[] rowCount = new int[1];
+        boolean success = false;
+        try {
+            query(sql, new CustomSqlParameterSource(map), (ResultSetExtractor<Void>) rs -> {
+                RowMapper<T> mapper = rowMapper.bind(new ColumnIndex(rs.getMetaData()));
+                while (rs.next()) {
+                    rowHandler.accept(mapper.mapRow(rs, rowCount[0]++));
+                }
+                return null;
+            });
+            success = true;
+        } catch (Exception e) {
+            throw new DbException("error selecting from db", e, DbException.SELECT_ERROR);
+        } finally {
+            log.info("query [{}] : {} rows took {} ms", truncate(sql), rowCount[0],
+                    Duration.between(startDttm, Instant.now()).toMillis());
+            record("select", sql, startDttm, success, rowCount[0]);
+        }
+    }
+
+    /**
+     * Rows of {@code sql} read through a server-side cursor, so that only one fetched batch is held in memory at a
+     * time: the query runs in its own read-only transaction on a connection taken from the pool for as long as the
+     * stream is open. {@code fetchSize} is the size of the first batch; later batches are sized from the observed
+     * row width to about {@link #setStreamBufferBytes stream buffer bytes}.
+     * <p>
+     * The stream must be closed, e.g. with try-with-resources; it also closes itself once all rows are read or
+     * reading fails.
+     */
+    public Stream<Map<String, Object>> stream(String sql, Map<String, Object> map, int fetchSize) {
+        ColumnMapRowMapper rowMapper = new ColumnMapRowMapper();
+        return stream(sql, map, columns -> rowMapper, fetchSize);
+    }
+
+    public <T> Stream<T> stream(String sql, Map<String, Object> map, IndexedRowMapper<T> rowMapper, int fetchSize) {
+        log.trace("using sql {}", truncate(sql));
+        log.trace("using row {}", map);
+        CursorSpliterator<T> cursor = new CursorSpliterator<>(sql);
+        try {
+            cursor.open(new CustomSqlParameterSource(map), rowMapper, Math.max(1, fetchSize));
+        } catch (Exception e) {
+            cursor.close();
+            throw new DbException("error selecting from db", e, DbException.SELECT_ERROR);
+        }
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+
+    private static PreparedStatementCreator statementCreator(String sql, SqlParameterSource parameters) {
+        ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(sql);
+        return new PreparedStatementCreatorFactory(
+                NamedParameterUtils.substituteNamedParameters(parsedSql, parameters),
+                NamedParameterUtils.buildSqlParameterList(parsedSql, parameters))
+                .newPreparedStatementCreator(NamedParameterUtils.buildValueArray(parsedSql, parameters, null));
+    }
+
+    /**
+     * Runs the query so that the {@link QueryHandle} bound to this thread, if any, can cancel it.
+     */
+    private <T> T query(String sql, SqlParameterSource parameters, ResultSetExtractor<T> extractor) {
+        QueryHandle handle = QueryHandle.current();
+        if (handle == null) {
+            return jdbcTemplate.query(sql, parameters, extractor);
+        }
+        PreparedStatementCreator creator = statementCreator(sql, parameters);
+        PreparedStatement[] statement = new PreparedStatement[1];
+        try {
+            return jdbcTemplate.getJdbcOperations().query(connection -> {
+                PreparedStatement created = creator.createPreparedStatement(connection);
+                try {
+                    handle.register(created);
+                } catch (SQLException e) {
+                    created.close();
+                    throw e;
+                }
+                statement[0] = created;
+                return created;
+            }, extractor);
+        } finally {
+            if (statement[0] != null) {
+                handle.unregister(statement[0]);
+            }
+        }
+    }
+
     public void simpleBatchInsert(String tableName, List<? extends Map<String, ?>> data, String... generatedColumns) {
         Instant startDttm = Instant.now();
         log.trace("using table {}", tableName);
         log.trace("using row {}", data);
-        SimpleJdbcInsert statement = createInsert(tableName, generatedColumns);
+        SimpleJdbcInsert statement = inserts.computeIfAbsent(
+                tableName + Arrays.toString(generatedColumns), k -> createInsert(tableName, generatedColumns));
         try {
-            statement.executeBatch(data.toArray(new Map[0]));
+            for (int from = 0; from < data.size(); from += batchSize) {
+                statement.executeBatch(data.subList(from, Math.min(from + batchSize, data.size())).toArray(new Map[0]));
+            }
         } catch (Exception e) {
             throw new DbException(e, DbException.INSERT_ERROR);
         } finally {
@@ -107,6 +337,81 @@ public class DbService {
         return statement.usingGeneratedKeyColumns(generatedColumns);
     }
 
+    public long copyIn(String tableName, List<String> columns, Iterator<? extends RawMessage> rows) {
+        return copyIn(tableName, columns, rows, message -> {
+            Object[] values = new Object[columns.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = message.getData().get(columns.get(i));
+            }
+            return values;
+        });
+    }
+
+    /**
+     * Streams {@code rows} into {@code tableName} with COPY FROM STDIN, committing every {@code batch_size} rows.
+     * Rows are encoded as they are pulled from the iterator, so the input is never held in memory as a whole.
+     * On failure the current chunk is rolled back and the exception reports how many rows were already committed.
+     */
+    public <T> long copyIn(String tableName, List<String> columns, Iterator<T> rows,
+                           Function<? super T, Object[]> valueExtractor) {
+        Instant startDttm = Instant.now();
+        String columnList = String.join(", ", columns);
+        long copied = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                PgCopyWriter writer = new PgCopyWriter(copyColumnTypes.computeIfAbsent(tableName + "(" + columnList + ")",
+                        k -> columnTypes(connection, tableName, columnList)));
+                String sql = "COPY " + tableName + " (" + columnList + ") FROM STDIN"
+                        + (writer.isBinary() ? " WITH (FORMAT binary)" : "");
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                while (rows.hasNext()) {
+                    CopyIn copyIn = copyManager.copyIn(sql);
+                    try {
+                        writer.begin(copyIn);
+                        for (int i = 0; i < batchSize && rows.hasNext(); i++) {
+                            writer.writeRow(valueExtractor.apply(rows.next()));
+                        }
+                        long chunk = writer.end();
+                        connection.commit();
+                        copied += chunk;
+                    } finally {
+                        if (copyIn.isActive()) {
+                            copyIn.cancelCopy();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (Exception e) {
+            throw new DbException("error copying into " + tableName + " after " + copied + " committed rows", e,
+                    DbException.INSERT_ERROR);
+        } finally {
+            log.info("copy [{}] : {} rows took {} ms", tableName, copied,
+                    Duration.between(startDttm, Instant.now()).toMillis());
+        }
+        return copied;
+    }
+
+    private static String[] columnTypes(Connection connection, String tableName, String columnList) {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "select " + columnList + " from " + tableName + " where false")) {
+            ResultSetMetaData metaData = statement.getMetaData();
+            String[] types = new String[metaData.getColumnCount()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = metaData.getColumnTypeName(i + 1);
+            }
+            return types;
+        } catch (SQLException e) {
+            throw new DbException("error reading column types of " + tableName, e, DbException.INSERT_ERROR);
+        }
+    }
+
     public void execute(String sql) {
         log.info("query [{}]", truncate(sql));
         jdbcTemplate.getJdbcOperations().execute(sql);
@@ -117,27 +422,235 @@ public class DbService {
         log.trace("using sql {}", sql);
         log.trace("using rows {}", data);
         try {
-            MapSqlParameterSource[] paramsArray = data.stream()
-                    .map(MapSqlParameterSource::new)
-                    .toArray(MapSqlParameterSource[]::new);
+            for (int from = 0; from < data.size(); from += batchSize) {
+                MapSqlParameterSource[] paramsArray = data.subList(from, Math.min(from + batchSize, data.size())).stream()
+                        .map(MapSqlParameterSource::new)
+                        .toArray(MapSqlParameterSource[]::new);
 
-            jdbcTemplate.batchUpdate(sql, paramsArray);
+                jdbcTemplate.batchUpdate(sql, paramsArray);
+            }
         } catch (Exception e) {
+            record("batchUpdate", sql, startDttm, false, -1);
             throw new DbException(e, DbException.INSERT_ERROR);
         }
         log.info("query [{}] took {} ms", sql, Duration.between(startDttm, Instant.now()).toMillis());
+        record("batchUpdate", sql, startDttm, true, data.size());
+    }
+
+    /**
+     * Runs {@code work} in one transaction on this service's data source: the statements it issues through this
+     * service are committed together, or rolled back together when it throws.
+     */
+    public void inTransaction(Runnable work) {
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource)).executeWithoutResult(status -> work.run());
     }
 
     public void update(String sql, Map<String, Object> map) {
         Instant startDttm = Instant.now();
         log.trace("using sql {}", truncate(sql));
         log.trace("using row {}", map);
+        int rows = -1;
         try {
-            jdbcTemplate.update(sql, new CustomSqlParameterSource(map));
+            rows = jdbcTemplate.update(sql, new CustomSqlParameterSource(map));
         } catch (Exception e) {
             throw new DbException(e, DbException.INSERT_ERROR);
         } finally {
             log.info("query [{}] took {} ms", truncate(sql), Duration.between(startDttm, Instant.now()).toMillis());
+            record("update", sql, startDttm, rows >= 0, rows);
+        }
+    }
+
+    /**
+     * Buffered writer for {@code tableName}, shared by all callers; rows are flushed by {@code batch_size} or
+     * {@code batch_timeout_ms}, whichever comes first.
+     */
+    public BatchWriter batchWriter(String tableName) {
+        return writers.computeIfAbsent(tableName,
+                name -> new BatchWriter(this, name, batchSize, batchTimeoutMs, bufferCapacity, flushExecutor()));
+    }
+
+    private ExecutorService flushExecutor() {
+        ExecutorService executor = flushExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = flushExecutor;
+                if (executor == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(FLUSH_THREADS, runnable -> {
+                        Thread thread = new Thread(runnable, "db-batch-flush-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    // the timer only hands expired writers to the pool, a slow insert never delays the other tables
+                    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "db-batch-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    long period = Math.max(1, batchTimeoutMs / 4);
+                    scheduler.scheduleWithFixedDelay(
+                            () -> writers.values().forEach(BatchWriter::flushExpired), period, period, TimeUnit.MILLISECONDS);
+                    flushScheduler = scheduler;
+                    flushExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public void close() {
+        for (BatchWriter writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (Exception e) {
+                log.error("error flushing batch writer on close", e);
+            }
+        }
+        ScheduledExecutorService scheduler = flushScheduler;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        ExecutorService executor = flushExecutor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The cursor behind {@link #stream}. Every row of the first {@value #STREAM_SAMPLE_ROWS} of a batch is measured,
+     * and the fetch size of the next batch is set from their average width.
+     */
+    private class CursorSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+        private final String sql;
+        private final Instant startDttm = Instant.now();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private QueryHandle handle;
+        private Connection connection;
+        private boolean autoCommit;
+        private boolean readOnly;
+        private PreparedStatement statement;
+        private ResultSet resultSet;
+        private RowMapper<T> mapper;
+        private int fetchSize;
+        private int rowCount;
+        private int batchRow;
+        private long sampledBytes;
+        private int sampledRows;
+        private boolean success;
+
+        CursorSpliterator(String sql) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.sql = sql;
+        }
+
+        void open(SqlParameterSource parameters, IndexedRowMapper<T> rowMapper, int fetchSize) throws SQLException {
+            this.fetchSize = fetchSize;
+            connection = dataSource.getConnection();
+            autoCommit = connection.getAutoCommit();
+            readOnly = connection.isReadOnly();
+            // pgjdbc only uses a cursor, instead of reading the whole result, inside a transaction
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            statement = statementCreator(sql, parameters).createPreparedStatement(connection);
+            statement.setFetchSize(fetchSize);
+            handle = QueryHandle.current();
+            if (handle != null) {
+                handle.register(statement);
+            }
+            resultSet = statement.executeQuery();
+            mapper = rowMapper.bind(new ColumnIndex(resultSet.getMetaData()));
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (closed.get()) {
+                return false;
+            }
+            T row;
+            try {
+                if (!resultSet.next()) {
+                    success = true;
+                    close();
+                    return false;
+                }
+                if (batchRow < STREAM_SAMPLE_ROWS) {
+                    sample();
+                }
+                row = mapper.mapRow(resultSet, rowCount++);
+                if (++batchRow == fetchSize) {
+                    adaptFetchSize();
+                }
+            } catch (SQLException e) {
+                close();
+                throw new DbException("error reading from cursor", e, DbException.SELECT_ERROR);
+            }
+            action.accept(row);
+            return true;
+        }
+
+        private void sample() throws SQLException {
+            int columns = resultSet.getMetaData().getColumnCount();
+            long bytes = 0;
+            for (int i = 1; i <= columns; i++) {
+                String value = resultSet.getString(i);
+                // length word of the column plus its text
+                bytes += 4 + (value == null ? 0 : value.length());
+            }
+            sampledBytes += bytes;
+            sampledRows++;
+        }
+
+        private void adaptFetchSize() throws SQLException {
+            batchRow = 0;
+            if (sampledRows == 0) {
+                return;
+            }
+            long rowBytes = Math.max(1, sampledBytes / sampledRows);
+            int adapted = (int) Math.max(MIN_STREAM_FETCH_SIZE, Math.min(MAX_STREAM_FETCH_SIZE,
+                    streamBufferBytes / rowBytes));
+            if (adapted != fetchSize) {
+                log.debug("rows of [{}] are about {} bytes, fetch size {} -> {}", truncate(sql), rowBytes, fetchSize,
+                        adapted);
+                fetchSize = adapted;
+                resultSet.setFetchSize(adapted);
+            }
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (handle != null && statement != null) {
+                handle.unregister(statement);
+            }
+            closeQuietly(resultSet);
+            closeQuietly(statement);
+            if (connection != null) {
+                try {
+                    // nothing to commit in a read-only transaction, and a rollback also ends an unfinished cursor
+                    connection.rollback();
+                    connection.setReadOnly(readOnly);
+                    connection.setAutoCommit(autoCommit);
+                } catch (SQLException e) {
+                    log.warn("error ending cursor transaction: {}", e.getMessage());
+                }
+                closeQuietly(connection);
+            }
+            log.info("query [{}] : {} rows streamed in {} ms", truncate(sql), rowCount,
+                    Duration.between(startDttm, Instant.now()).toMillis());
+            record("stream", sql, startDttm, success, rowCount);
+        }
+
+        private void closeQuietly(AutoCloseable resource) {
+            if (resource == null) {
+                return;
+            }
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.warn("error closing cursor resource: {}", e.getMessage());
+            }
         }
     }
 
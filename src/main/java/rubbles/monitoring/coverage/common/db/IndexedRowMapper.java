@@ -0,0 +1,10 @@
+package rubbles.monitoring.coverage.common.db;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface IndexedRowMapper<T> {
+    RowMapper<T> bind(ColumnIndex columns) throws SQLException;
+}
@@ -0,0 +1,37 @@
+package rubbles.monitoring.coverage.common.db;
+
+import java.util.Arrays;
+
+/**
+ * The last {@code capacity} durations of one query, oldest overwritten first.
+ */
+class LatencyWindow {
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    LatencyWindow(int capacity) {
+        this.samples = new long[Math.max(1, capacity)];
+    }
+
+    synchronized void add(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Nearest-rank percentile of the recorded durations, or -1 while fewer than {@code minSamples} are recorded.
+     */
+    synchronized long percentile(double percentile, int minSamples) {
+        if (count == 0 || count < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile * count);
+        return sorted[Math.min(count, Math.max(1, rank)) - 1];
+    }
+}
@@ -0,0 +1,359 @@
+package rubbles.monitoring.coverage.common.db;
+
+import org.postgresql.copy.CopyIn;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Encodes rows into a COPY FROM STDIN stream through a fixed-size buffer.
+ * The binary format is used when every target column has a supported type, otherwise the text format.
+ */
+final class PgCopyWriter {
+    private static final byte[] BINARY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final Set<String> BINARY_TYPES = Set.of("int2", "int4", "int8", "float4", "float8", "numeric",
+            "bool", "text", "varchar", "bpchar", "name", "bytea", "date", "timestamp", "timestamptz", "uuid");
+    private static final LocalDate PG_EPOCH_DATE = LocalDate.of(2000, 1, 1);
+    private static final LocalDateTime PG_EPOCH = PG_EPOCH_DATE.atStartOfDay();
+    private static final Instant PG_EPOCH_INSTANT = PG_EPOCH.toInstant(ZoneOffset.UTC);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String[] typeNames;
+    private final boolean binary;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int count;
+    private CopyIn target;
+
+    PgCopyWriter(String[] typeNames) {
+        this.typeNames = typeNames;
+        this.binary = Arrays.stream(typeNames).allMatch(BINARY_TYPES::contains);
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    void begin(CopyIn copyIn) throws SQLException {
+        target = copyIn;
+        count = 0;
+        if (binary) {
+            write(BINARY_SIGNATURE, 0, BINARY_SIGNATURE.length);
+            writeInt(0);
+            writeInt(0);
+        }
+    }
+
+    void writeRow(Object[] values) throws SQLException {
+        if (values.length != typeNames.length) {
+            throw new IllegalArgumentException("expected " + typeNames.length + " values, got " + values.length);
+        }
+        if (binary) {
+            writeShort(values.length);
+            for (int i = 0; i < values.length; i++) {
+                writeBinary(typeNames[i], values[i]);
+            }
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writeByte('\t');
+                }
+                writeText(values[i]);
+            }
+            writeByte('\n');
+        }
+    }
+
+    long end() throws SQLException {
+        if (binary) {
+            writeShort(-1);
+        }
+        flush();
+        long rows = target.endCopy();
+        target = null;
+        return rows;
+    }
+
+    private void writeBinary(String typeName, Object value) throws SQLException {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        switch (typeName) {
+            case "int2" -> {
+                writeInt(2);
+                writeShort(((Number) value).shortValue());
+            }
+            case "int4" -> {
+                writeInt(4);
+                writeInt(((Number) value).intValue());
+            }
+            case "int8" -> {
+                writeInt(8);
+                writeLong(((Number) value).longValue());
+            }
+            case "float4" -> {
+                writeInt(4);
+                writeInt(Float.floatToIntBits(((Number) value).floatValue()));
+            }
+            case "float8" -> {
+                writeInt(8);
+                writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+            }
+            case "numeric" -> writeNumeric(value instanceof BigDecimal decimal ? decimal : new BigDecimal(value.toString()));
+            case "bool" -> {
+                writeInt(1);
+                writeByte((Boolean) value ? 1 : 0);
+            }
+            case "bytea" -> writeBytes((byte[]) value);
+            case "date" -> {
+                writeInt(4);
+                writeInt((int) ChronoUnit.DAYS.between(PG_EPOCH_DATE, toLocalDate(value)));
+            }
+            case "timestamp" -> {
+                writeInt(8);
+                writeLong(ChronoUnit.MICROS.between(PG_EPOCH, toLocalDateTime(value)));
+            }
+            case "timestamptz" -> {
+                writeInt(8);
+                writeLong(ChronoUnit.MICROS.between(PG_EPOCH_INSTANT, toInstant(value)));
+            }
+            case "uuid" -> {
+                UUID uuid = value instanceof UUID id ? id : UUID.fromString(value.toString());
+                writeInt(16);
+                writeLong(uuid.getMostSignificantBits());
+                writeLong(uuid.getLeastSignificantBits());
+            }
+            default -> writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writeNumeric(BigDecimal value) throws SQLException {
+        BigDecimal abs = value.abs();
+        if (abs.scale() < 0) {
+            abs = abs.setScale(0);
+        }
+        int scale = abs.scale();
+        String plain = abs.toPlainString();
+        int point = plain.indexOf('.');
+        String integer = point < 0 ? plain : plain.substring(0, point);
+        String fraction = point < 0 ? "" : plain.substring(point + 1);
+        if (integer.equals("0")) {
+            integer = "";
+        }
+        integer = "0".repeat((4 - integer.length() % 4) % 4) + integer;
+        fraction = fraction + "0".repeat((4 - fraction.length() % 4) % 4);
+        String digits = integer + fraction;
+        int groups = digits.length() / 4;
+        int weight = integer.length() / 4 - 1;
+        int first = 0;
+        while (first < groups && digits.startsWith("0000", first * 4)) {
+            first++;
+        }
+        int last = groups;
+        while (last > first && digits.startsWith("0000", (last - 1) * 4)) {
+            last--;
+        }
+        int ndigits = last - first;
+        writeInt(8 + ndigits * 2);
+        writeShort(ndigits);
+        writeShort(ndigits == 0 ? 0 : weight - first);
+        writeShort(value.signum() < 0 ? 0x4000 : 0);
+        writeShort(scale);
+        for (int i = first; i < last; i++) {
+            writeShort(Integer.parseInt(digits, i * 4, i * 4 + 4, 10));
+        }
+    }
+
+    private void writeText(Object value) throws SQLException {
+        if (value == null) {
+            writeByte('\\');
+            writeByte('N');
+            return;
+        }
+        byte[] bytes = text(value).getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            switch (b) {
+                case '\\' -> {
+                    writeByte('\\');
+                    writeByte('\\');
+                }
+                case '\t' -> {
+                    writeByte('\\');
+                    writeByte('t');
+                }
+                case '\n' -> {
+                    writeByte('\\');
+                    writeByte('n');
+                }
+                case '\r' -> {
+                    writeByte('\\');
+                    writeByte('r');
+                }
+                default -> writeByte(b);
+            }
+        }
+    }
+
+    /**
+     * The text input form of {@code value}. Types whose {@code toString} Postgres cannot read are formatted here:
+     * a {@code java.util.Date} as an ISO timestamp with the offset of the default time zone, and an array as an array
+     * literal.
+     */
+    static String text(Object value) {
+        if (value instanceof byte[] bytes) {
+            return "\\x" + HexFormat.of().formatHex(bytes);
+        }
+        if (value instanceof Boolean bool) {
+            return bool ? "t" : "f";
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal.toPlainString();
+        }
+        // the java.sql types print as Postgres reads them
+        if (value instanceof Date date && !(value instanceof java.sql.Date) && !(value instanceof java.sql.Time)
+                && !(value instanceof Timestamp)) {
+            return OffsetDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()).toString();
+        }
+        if (value.getClass().isArray()) {
+            StringBuilder literal = new StringBuilder("{");
+            for (int i = 0; i < Array.getLength(value); i++) {
+                if (i > 0) {
+                    literal.append(',');
+                }
+                Object element = Array.get(value, i);
+                if (element == null) {
+                    literal.append("NULL");
+                } else if (element.getClass().isArray() && !(element instanceof byte[])) {
+                    literal.append(text(element));
+                } else {
+                    literal.append('"').append(text(element).replace("\\", "\\\\").replace("\"", "\\\""))
+                            .append('"');
+                }
+            }
+            return literal.append('}').toString();
+        }
+        return value.toString();
+    }
+
+    private static LocalDate toLocalDate(Object value) {
+        if (value instanceof LocalDate date) {
+            return date;
+        }
+        if (value instanceof java.sql.Date date) {
+            return date.toLocalDate();
+        }
+        if (value instanceof LocalDateTime dateTime) {
+            return dateTime.toLocalDate();
+        }
+        return LocalDate.parse(value.toString());
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof LocalDateTime dateTime) {
+            return dateTime;
+        }
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        if (value instanceof LocalDate date) {
+            return date.atStartOfDay();
+        }
+        if (value instanceof java.sql.Date date) {
+            return date.toLocalDate().atStartOfDay();
+        }
+        if (value instanceof Date date) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(date.getTime()), ZoneId.systemDefault());
+        }
+        return LocalDateTime.parse(value.toString());
+    }
+
+    private static Instant toInstant(Object value) {
+        if (value instanceof Instant instant) {
+            return instant;
+        }
+        if (value instanceof OffsetDateTime dateTime) {
+            return dateTime.toInstant();
+        }
+        if (value instanceof ZonedDateTime dateTime) {
+            return dateTime.toInstant();
+        }
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toInstant();
+        }
+        if (value instanceof Date date && !(value instanceof java.sql.Date)) {
+            // java.sql.Time does not support toInstant
+            return Instant.ofEpochMilli(date.getTime());
+        }
+        return toLocalDateTime(value).atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    private void writeBytes(byte[] bytes) throws SQLException {
+        writeInt(bytes.length);
+        write(bytes, 0, bytes.length);
+    }
+
+    private void writeLong(long value) throws SQLException {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeInt(int value) throws SQLException {
+        ensure(4);
+        buf[count++] = (byte) (value >>> 24);
+        buf[count++] = (byte) (value >>> 16);
+        buf[count++] = (byte) (value >>> 8);
+        buf[count++] = (byte) value;
+    }
+
+    private void writeShort(int value) throws SQLException {
+        ensure(2);
+        buf[count++] = (byte) (value >>> 8);
+        buf[count++] = (byte) value;
+    }
+
+    private void writeByte(int value) throws SQLException {
+        ensure(1);
+        buf[count++] = (byte) value;
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws SQLException {
+        if (length > buf.length - count) {
+            flush();
+            if (length > buf.length) {
+                target.writeToCopy(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+    }
+
+    private void ensure(int length) throws SQLException {
+        if (buf.length - count < length) {
+            flush();
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (count > 0) {
+            target.writeToCopy(buf, 0, count);
+            count = 0;
+        }
+    }
+}
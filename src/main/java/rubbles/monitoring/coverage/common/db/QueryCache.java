@@ -0,0 +1,225 @@
+package rubbles.monitoring.coverage.common.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Size-bounded query result cache with a time to live. Keys are the SQL text plus its parameters sorted by name.
+ * The cache is split into stripes with their own lock and LRU order, so concurrent lookups rarely contend.
+ * Concurrent misses on the same key may both load; the later result wins.
+ */
+public class QueryCache {
+    private static final int STRIPES = 16;
+    private static final Pattern PARAMETER = Pattern.compile("(?<![:\\w]):([A-Za-z_][A-Za-z0-9_]*)");
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public QueryCache(int maxEntries, long ttlMs) {
+        int perStripe = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    /**
+     * Names of the {@code :name} parameters used by {@code sql}, in order of appearance; {@code ::type} casts are skipped.
+     */
+    public static List<String> parameterNames(String sql) {
+        List<String> names = new ArrayList<>();
+        Matcher matcher = PARAMETER.matcher(sql);
+        while (matcher.find()) {
+            if (!names.contains(matcher.group(1))) {
+                names.add(matcher.group(1));
+            }
+        }
+        return names;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> V get(String sql, Map<String, ?> parameters, Supplier<V> loader) {
+        Key key = new Key(sql, parameters);
+        Stripe stripe = stripe(key);
+        long now = System.nanoTime();
+        synchronized (stripe) {
+            Entry entry = stripe.entries.get(key);
+            if (entry != null) {
+                if (now - entry.expiresAtNanos < 0) {
+                    hits.increment();
+                    return (V) entry.value;
+                }
+                stripe.entries.remove(key);
+                expirations.increment();
+            }
+        }
+        misses.increment();
+        V value = loader.get();
+        synchronized (stripe) {
+            stripe.entries.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+        }
+        return value;
+    }
+
+    public void invalidate(String sql, Map<String, ?> parameters) {
+        Key key = new Key(sql, parameters);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.entries.remove(key);
+        }
+    }
+
+    public void invalidate(String sql) {
+        invalidateIf(sql::equals);
+    }
+
+    /**
+     * Drops every entry whose SQL text mentions {@code table}, e.g. after the table was written to.
+     */
+    public void invalidateTable(String table) {
+        String lowerCase = table.toLowerCase();
+        invalidateIf(sql -> sql.toLowerCase().contains(lowerCase));
+    }
+
+    public void invalidateIf(Predicate<String> sqlPredicate) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.entries.keySet().removeIf(key -> sqlPredicate.test(key.sql));
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.entries.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", expirations=" + getExpirations() + "}";
+    }
+
+    private Stripe stripe(Key key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private class Stripe {
+        private final LinkedHashMap<Key, Entry> entries;
+
+        Stripe(int maxEntries) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                    if (size() > maxEntries) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expiresAtNanos;
+
+        Entry(Object value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final Map<String, Object> parameters;
+        private final int hash;
+
+        Key(String sql, Map<String, ?> parameters) {
+            this.sql = sql;
+            this.parameters = new TreeMap<>();
+            if (parameters != null) {
+                parameters.forEach((name, value) -> this.parameters.put(name, normalize(value)));
+            }
+            this.hash = 31 * sql.hashCode() + this.parameters.hashCode();
+        }
+
+        private static Object normalize(Object value) {
+            if (value instanceof Object[] array) {
+                return Arrays.asList(array);
+            }
+            if (value instanceof Collection<?> collection) {
+                List<Object> list = new ArrayList<>(collection.size());
+                for (Object item : collection) {
+                    list.add(normalize(item));
+                }
+                return list;
+            }
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key key)) {
+                return false;
+            }
+            return hash == key.hash && sql.equals(key.sql) && Objects.equals(parameters, key.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
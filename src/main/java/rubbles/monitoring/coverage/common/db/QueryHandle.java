@@ -0,0 +1,95 @@
+package rubbles.monitoring.coverage.common.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets another thread cancel the queries {@link DbService} runs on behalf of a task. While {@link #call} runs, every
+ * statement executed by the calling thread is registered here, and {@link #cancel} sends {@code Statement.cancel}
+ * to the ones still executing; queries started after the cancel fail right away.
+ */
+@Slf4j
+public class QueryHandle {
+    private static final ThreadLocal<QueryHandle> CURRENT = new ThreadLocal<>();
+
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+    private final Set<QueryHandle> children = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    static QueryHandle current() {
+        return CURRENT.get();
+    }
+
+    public <T> T call(Callable<T> task) throws Exception {
+        QueryHandle previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        for (Statement statement : statements) {
+            cancel(statement);
+        }
+        for (QueryHandle child : children) {
+            child.cancel();
+        }
+    }
+
+    /**
+     * A handle for work this task hands to other threads; cancelling this handle cancels the child too, but not
+     * the other way round. Release the child with {@link #release} when that work is done.
+     */
+    QueryHandle fork() {
+        QueryHandle child = new QueryHandle();
+        children.add(child);
+        if (cancelled) {
+            child.cancel();
+        }
+        return child;
+    }
+
+    void release(QueryHandle child) {
+        children.remove(child);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void register(Statement statement) throws SQLException {
+        if (cancelled) {
+            throw new SQLException("query cancelled before it started");
+        }
+        statements.add(statement);
+        // a cancel that ran between the check and the add would have missed this statement
+        if (cancelled) {
+            cancel(statement);
+        }
+    }
+
+    void unregister(Statement statement) {
+        statements.remove(statement);
+    }
+
+    private static void cancel(Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            log.debug("error cancelling statement: {}", e.getMessage());
+        }
+    }
+}
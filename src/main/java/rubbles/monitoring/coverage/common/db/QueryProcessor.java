@@ -2,36 +2,57 @@ package rubbles.monitoring.coverage.common.db;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import rubbles.monitoring.coverage.common.core.CompactRow;
 import rubbles.monitoring.coverage.common.core.Message;
 import rubbles.monitoring.coverage.common.core.Processor;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 @Slf4j
-@RequiredArgsConstructor
 public class QueryProcessor implements Processor<Message, Message> {
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final String sql;
     private final boolean required;
+    private final QueryCache cache;
+    private final List<String> parameterNames;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    public QueryProcessor(NamedParameterJdbcTemplate jdbcTemplate, String sql, boolean required) {
+        this(jdbcTemplate, sql, required, null);
+    }
+
+    /**
+     * Results are cached by the values of the parameters the SQL actually uses, so messages that differ only in
+     * other fields share one lookup.
+     */
+    public QueryProcessor(NamedParameterJdbcTemplate jdbcTemplate, String sql, boolean required, QueryCache cache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+        this.required = required;
+        this.cache = cache;
+        this.parameterNames = QueryCache.parameterNames(sql);
+    }
+
     @Override
     public List<Message> apply(Message message) {
         Map<String, Object> rawMap = objectMapper.convertValue(message, new TypeReference<Map<String, Object>>() {
         });
         log.trace("selecting with object {}", rawMap);
-        List<Map<String, Object>> loadedData = jdbcTemplate.queryForList(sql, rawMap);
+        List<Map<String, Object>> loadedData = cache == null
+                ? jdbcTemplate.query(sql, rawMap, new CompactRowMapper())
+                : cache.get(sql, usedParameters(rawMap), () -> jdbcTemplate.query(sql, rawMap, new CompactRowMapper()));
         List<Message> result = loadedData.stream()
                 .map(map -> {
                     Message row = new Message(message.getId());
-                    row.setData(map);
+                    // cached rows are shared between messages
+                    row.setData(cache == null ? map : CompactRow.copyOf(map));
                     return row;
                 })
                 .collect(Collectors.toList());
@@ -42,4 +63,12 @@ public class QueryProcessor implements Processor<Message, Message> {
         }
         return result;
     }
+
+    private Map<String, Object> usedParameters(Map<String, Object> rawMap) {
+        Map<String, Object> used = new HashMap<>();
+        for (String name : parameterNames) {
+            used.put(name, rawMap.get(name));
+        }
+        return used;
+    }
 }
@@ -0,0 +1,309 @@
+package rubbles.monitoring.coverage.common.db;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import rubbles.monitoring.coverage.common.core.CommonException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Sends read-only selects to a replica of the primary database while the replica's replay lag stays under
+ * {@code maxLagMs}, and to the primary otherwise. The lag is checked at most once per {@code lagCheckIntervalMs}.
+ * <p>
+ * With hedging enabled, a select still running on the replica after the recent p95 of the same query is started
+ * on the primary too; the first one to finish wins and the other is cancelled. Until {@code minSamples} durations
+ * are known, {@code initialDelayMs} is used instead of the p95, and 0 there means no hedging.
+ * <p>
+ * After {@link #requireReplayOfPrimary} the replica is only used again once it has replayed the primary's WAL up to
+ * that call, whatever its lag, so that reads see what was written on the primary before it.
+ */
+@Slf4j
+public class ReplicaRouter implements AutoCloseable {
+    private static final String SELECT_LAG = "select case"
+            + " when not pg_is_in_recovery() or pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() then 0"
+            + " else cast(extract(epoch from now() - pg_last_xact_replay_timestamp()) * 1000 as bigint) end as lag_ms";
+    private static final String SELECT_PRIMARY_LSN = "select cast(pg_current_wal_lsn() as text) as lsn";
+    private static final String SELECT_REPLAYED = "select coalesce(pg_last_wal_replay_lsn() >= cast(:lsn as pg_lsn),"
+            + " not pg_is_in_recovery()) as replayed";
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private final DbService primary;
+    private final DbService replica;
+    private final long maxLagMs;
+    private final long lagCheckIntervalMs;
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final Object lagLock = new Object();
+
+    private volatile long lagCheckedAt;
+    private volatile boolean replicaUsable;
+    private volatile String requiredLsn;
+    private boolean hedging;
+    private int window = 100;
+    private int minSamples = 5;
+    private long initialDelayMs;
+    private ExecutorService executor;
+    private MeterRegistry meterRegistry;
+
+    public ReplicaRouter(DbService primary) {
+        this(primary, null, 0, 0);
+    }
+
+    public ReplicaRouter(DbService primary, DbService replica, long maxLagMs, long lagCheckIntervalMs) {
+        this.primary = primary;
+        this.replica = replica;
+        this.maxLagMs = maxLagMs;
+        this.lagCheckIntervalMs = lagCheckIntervalMs;
+        if (replica != null) {
+            replica.registerQueryName(SELECT_LAG, "replica_lag");
+            replica.registerQueryName(SELECT_REPLAYED, "replica_replayed");
+            primary.registerQueryName(SELECT_PRIMARY_LSN, "primary_lsn");
+        }
+    }
+
+    public void setHedging(int window, int minSamples, long initialDelayMs) {
+        if (replica == null) {
+            return;
+        }
+        this.hedging = true;
+        this.window = window;
+        this.minSamples = minSamples;
+        this.initialDelayMs = initialDelayMs;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "db-hedge-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public DbService getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Sends reads to the primary until the replica has replayed everything the primary has written so far. A
+     * failure to read the primary's position does the same until the next lag check.
+     */
+    public void requireReplayOfPrimary() {
+        if (replica == null) {
+            return;
+        }
+        String lsn = null;
+        try {
+            List<Map<String, Object>> rows = primary.select(SELECT_PRIMARY_LSN, new HashMap<>());
+            lsn = rows.isEmpty() ? null : (String) rows.get(0).get("lsn");
+        } catch (RuntimeException e) {
+            log.warn("error reading the primary WAL position, reading from primary: {}", e.getMessage());
+        }
+        synchronized (lagLock) {
+            requiredLsn = lsn;
+            replicaUsable = false;
+            lagCheckedAt = lsn == null ? System.currentTimeMillis() : 0;
+        }
+    }
+
+    public void registerQueryName(String sql, String name) {
+        primary.registerQueryName(sql, name);
+        if (replica != null) {
+            replica.registerQueryName(sql, name);
+        }
+    }
+
+    public <T> List<T> select(String sql, Map<String, Object> map, IndexedRowMapper<T> rowMapper) {
+        if (!isReplicaUsable()) {
+            return timed(sql, () -> primary.select(sql, map, rowMapper));
+        }
+        Callable<List<T>> onReplica = () -> replica.select(sql, map, rowMapper);
+        Callable<List<T>> onPrimary = () -> primary.select(sql, map, rowMapper);
+        long delayMs = hedging ? hedgeDelayMs(sql) : 0;
+        if (delayMs <= 0) {
+            return withFallback(sql, onReplica, onPrimary);
+        }
+        return hedged(sql, delayMs, onReplica, onPrimary);
+    }
+
+    /**
+     * {@link DbService#stream} on the replica while it is usable; streams are neither hedged nor retried.
+     */
+    public Stream<Map<String, Object>> stream(String sql, Map<String, Object> map, int fetchSize) {
+        return (isReplicaUsable() ? replica : primary).stream(sql, map, fetchSize);
+    }
+
+    private <T> List<T> timed(String sql, Callable<List<T>> query) {
+        long start = System.nanoTime();
+        try {
+            List<T> rows = query.call();
+            record(sql, start);
+            return rows;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DbException("error selecting from db", e, DbException.SELECT_ERROR);
+        }
+    }
+
+    /**
+     * Runs {@code query} on the replica and, when it fails for any reason but a cancel, once more on the primary:
+     * long selects on a replica get cancelled by recovery conflicts.
+     */
+    private <T> List<T> withFallback(String sql, Callable<List<T>> query, Callable<List<T>> fallback) {
+        try {
+            return timed(sql, query);
+        } catch (RuntimeException e) {
+            QueryHandle handle = QueryHandle.current();
+            if ((handle != null && handle.isCancelled()) || Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            log.warn("select on replica failed, retrying on primary: {}", e.getMessage());
+            return timed(sql, fallback);
+        }
+    }
+
+    private <T> List<T> hedged(String sql, long delayMs, Callable<List<T>> first, Callable<List<T>> second) {
+        QueryHandle parent = QueryHandle.current();
+        List<QueryHandle> handles = new ArrayList<>(2);
+        List<Future<List<T>>> futures = new ArrayList<>(2);
+        CompletionService<List<T>> completion = new ExecutorCompletionService<>(executor);
+        try {
+            futures.add(submit(completion, parent, handles, sql, first));
+            Future<List<T>> done = completion.poll(delayMs, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                log.info("select still running on replica after {} ms, hedging on primary", delayMs);
+                futures.add(submit(completion, parent, handles, sql, second));
+            }
+            RuntimeException failure = null;
+            for (int finished = 0; finished < futures.size(); finished++) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                try {
+                    List<T> rows = done.get();
+                    if (futures.size() > 1 && meterRegistry != null) {
+                        meterRegistry.counter("db.query.hedged", "winner",
+                                done == futures.get(0) ? "replica" : "primary").increment();
+                    }
+                    return rows;
+                } catch (ExecutionException e) {
+                    RuntimeException cause = e.getCause() instanceof RuntimeException runtime ? runtime
+                            : new DbException("error selecting from db", e.getCause(), DbException.SELECT_ERROR);
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                    // the replica failed before the hedge started: the primary is the fallback
+                    if (futures.size() == 1 && (parent == null || !parent.isCancelled())) {
+                        log.warn("select on replica failed, retrying on primary: {}", cause.getMessage());
+                        futures.add(submit(completion, parent, handles, sql, second));
+                    }
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommonException("interrupted waiting for hedged select", e, CommonException.INTERRUPTED);
+        } finally {
+            // the loser, if any, is still running
+            for (QueryHandle handle : handles) {
+                handle.cancel();
+                if (parent != null) {
+                    parent.release(handle);
+                }
+            }
+            for (Future<List<T>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private <T> Future<List<T>> submit(CompletionService<List<T>> completion, QueryHandle parent,
+                                       List<QueryHandle> handles, String sql, Callable<List<T>> query) {
+        QueryHandle handle = parent != null ? parent.fork() : new QueryHandle();
+        handles.add(handle);
+        return completion.submit(() -> handle.call(() -> timed(sql, query)));
+    }
+
+    private long hedgeDelayMs(String sql) {
+        LatencyWindow latency = latencies.get(sql);
+        long p95 = latency == null ? -1 : latency.percentile(HEDGE_PERCENTILE, minSamples);
+        return p95 >= 0 ? Math.max(1, p95) : initialDelayMs;
+    }
+
+    private void record(String sql, long startNanos) {
+        latencies.computeIfAbsent(sql, key -> new LatencyWindow(window))
+                .add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private boolean isReplicaUsable() {
+        if (replica == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - lagCheckedAt < lagCheckIntervalMs) {
+            return replicaUsable;
+        }
+        synchronized (lagLock) {
+            if (System.currentTimeMillis() - lagCheckedAt >= lagCheckIntervalMs) {
+                replicaUsable = checkLag();
+                lagCheckedAt = System.currentTimeMillis();
+            }
+            return replicaUsable;
+        }
+    }
+
+    private boolean checkLag() {
+        try {
+            String lsn = requiredLsn;
+            if (lsn != null) {
+                Map<String, Object> params = new HashMap<>();
+                params.put("lsn", lsn);
+                List<Map<String, Object>> rows = replica.select(SELECT_REPLAYED, params);
+                if (rows.isEmpty() || !Boolean.TRUE.equals(rows.get(0).get("replayed"))) {
+                    log.warn("replica has not replayed the primary up to {} yet, reading from primary", lsn);
+                    return false;
+                }
+                requiredLsn = null;
+            }
+            List<Map<String, Object>> rows = replica.select(SELECT_LAG, new HashMap<>());
+            Object lag = rows.isEmpty() ? null : rows.get(0).get("lag_ms");
+            if (!(lag instanceof Number lagMs)) {
+                log.warn("replica lag is unknown, reading from primary");
+                return false;
+            }
+            if (lagMs.longValue() > maxLagMs) {
+                log.warn("replica lag {} ms exceeds {} ms, reading from primary", lagMs, maxLagMs);
+                return false;
+            }
+            log.debug("replica lag {} ms", lagMs);
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("error checking replica lag, reading from primary: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package rubbles.monitoring.coverage.common.db;
+
+import lombok.extern.slf4j.Slf4j;
+import rubbles.monitoring.coverage.common.core.CommonException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The same database split across several shards, each with its own {@link ReplicaRouter} and pools. A query runs on
+ * all shards at once, so it takes as long as the slowest shard. When one shard fails, the queries still running
+ * on the others are cancelled. A {@link QueryHandle} bound to the calling thread also cancels the shard queries.
+ */
+@Slf4j
+public class ShardGroup implements AutoCloseable {
+    private final Map<String, ReplicaRouter> shards;
+    private final List<? extends AutoCloseable> resources;
+    private final ExecutorService executor;
+    private int poolSize = Integer.MAX_VALUE;
+
+    public ShardGroup(Map<String, ReplicaRouter> shards, List<? extends AutoCloseable> resources) {
+        this.shards = new LinkedHashMap<>(shards);
+        this.resources = resources;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "db-shard-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    /**
+     * Connections the smallest pool of the group allows, that is how many queries may run on every shard at once.
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public Map<String, ReplicaRouter> getShards() {
+        return shards;
+    }
+
+    public void registerQueryName(String sql, String name) {
+        for (ReplicaRouter shard : shards.values()) {
+            shard.registerQueryName(sql, name);
+        }
+    }
+
+    /**
+     * Rows of every shard, one list per shard in configuration order.
+     */
+    public <T> List<List<T>> selectEach(String sql, Map<String, Object> map, IndexedRowMapper<T> rowMapper) {
+        if (shards.size() == 1) {
+            return List.of(shards.values().iterator().next().select(sql, map, rowMapper));
+        }
+        QueryHandle parent = QueryHandle.current();
+        QueryHandle group = parent != null ? parent.fork() : new QueryHandle();
+        List<String> names = new ArrayList<>(shards.keySet());
+        List<ReplicaRouter> services = new ArrayList<>(shards.values());
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Integer>> futures = new ArrayList<>(services.size());
+        List<List<T>> results = new ArrayList<>(Collections.nCopies(services.size(), null));
+        try {
+            for (int i = 0; i < services.size(); i++) {
+                int shard = i;
+                futures.add(completion.submit(() -> {
+                    results.set(shard, group.call(() -> services.get(shard).select(sql, map, rowMapper)));
+                    return shard;
+                }));
+            }
+            // taken in completion order, so that a failing shard does not wait for the slower ones
+            for (int done = 0; done < futures.size(); done++) {
+                Future<Integer> future = completion.take();
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    cancel(group, futures);
+                    throw new DbException("error selecting from shard " + names.get(futures.indexOf(future)),
+                            e.getCause(), DbException.SELECT_ERROR);
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            cancel(group, futures);
+            Thread.currentThread().interrupt();
+            throw new CommonException("interrupted waiting for shard queries", e, CommonException.INTERRUPTED);
+        } finally {
+            if (parent != null) {
+                parent.release(group);
+            }
+        }
+    }
+
+    private static void cancel(QueryHandle group, List<? extends Future<?>> futures) {
+        group.cancel();
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (ReplicaRouter shard : shards.values()) {
+            shard.close();
+        }
+        for (AutoCloseable resource : resources) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.error("error closing shard resource", e);
+            }
+        }
+    }
+}
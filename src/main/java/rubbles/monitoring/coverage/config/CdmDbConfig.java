@@ -2,19 +2,34 @@ package rubbles.monitoring.coverage.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
 import org.springframework.boot.autoconfigure.jdbc.JdbcProperties;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import rubbles.monitoring.coverage.common.db.DbService;
+import rubbles.monitoring.coverage.common.db.QueryCache;
+import rubbles.monitoring.coverage.common.db.ReplicaRouter;
+import rubbles.monitoring.coverage.common.db.ShardGroup;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 @Slf4j
 @Lazy
@@ -39,14 +54,17 @@ public class CdmDbConfig {
 
     @Bean
     @ConfigurationProperties(prefix = "db.postgres.cdm.hikari")
-    public DataSource cdmDataSource(@Qualifier("cdmDataSourceProperties") DataSourceProperties cdmDataSourceProperties) {
+    public DataSource cdmDataSource(@Qualifier("cdmDataSourceProperties") DataSourceProperties cdmDataSourceProperties,
+                                    MeterRegistry meterRegistry) {
         try {
 //            cdmDataSourceProperties.setPassword(Encryptor.decrypt(cdmDataSourceProperties.getPassword()));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-        return cdmDataSourceProperties.initializeDataSourceBuilder()
+        HikariDataSource dataSource = cdmDataSourceProperties.initializeDataSourceBuilder()
                 .type(HikariDataSource.class).build();
+        dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return dataSource;
     }
 
     @Bean
@@ -54,9 +72,134 @@ public class CdmDbConfig {
         return jdbcTemplate(cdmDataSource, jdbcProperties);
     }
 
+    @Bean
+    public QueryCache cdmQueryCache(@Value("${db.postgres.cache_max_entries:10000}") int maxEntries,
+                                   @Value("${db.postgres.cache_ttl_ms:300000}") long ttlMs) {
+        return new QueryCache(maxEntries, ttlMs);
+    }
+
     @Bean
     public DbService cdmDbService(@Qualifier("cdmDataSource") DataSource cdmDataSource,
-                                       @Qualifier("cdmJdbcTemplate") JdbcTemplate cdmJdbcTemplate, @Qualifier("DbObjectMapper")ObjectMapper objectMapper) {
-        return new DbService(cdmDataSource, objectMapper, new NamedParameterJdbcTemplate(cdmJdbcTemplate));
+                                       @Qualifier("cdmJdbcTemplate") JdbcTemplate cdmJdbcTemplate, @Qualifier("DbObjectMapper")ObjectMapper objectMapper,
+                                       @Value("${db.postgres.batch_size:10000}") int batchSize,
+                                       @Value("${db.postgres.batch_timeout_ms:1000}") long batchTimeoutMs,
+                                       @Value("${db.postgres.batch_buffer_size:40000}") int bufferSize,
+                                       @Qualifier("cdmQueryCache") QueryCache cdmQueryCache,
+                                       MeterRegistry meterRegistry) {
+        DbService dbService = new DbService(cdmDataSource, objectMapper, new NamedParameterJdbcTemplate(cdmJdbcTemplate),
+                batchSize, batchTimeoutMs, bufferSize);
+        dbService.setQueryCache(cdmQueryCache);
+        dbService.setMeterRegistry(meterRegistry);
+        return dbService;
+    }
+
+    /**
+     * The CDM shards the report sections are collected from: {@code db.postgres.shards[n]} with {@code name},
+     * {@code url}, {@code username}, {@code password} and {@code hikari.*}, e.g. {@code DB_POSTGRES_SHARDS_0_URL}.
+     * Without shards the section queries run on {@code cdmDbService} alone.
+     * <p>
+     * Each shard, and {@code cdmDbService} through {@code db.postgres.cdm-replica}, may have a {@code replica} the
+     * section queries are routed to as set by {@code db.postgres.routing}.
+     * <p>
+     * The smallest of the pools, {@code cdmDataSource} included, is the group's pool size, which caps the number of
+     * sections collected at once.
+     */
+    @Bean(destroyMethod = "close")
+    public ShardGroup cdmShards(@Qualifier("cdmDbService") DbService cdmDbService,
+                                @Qualifier("cdmDataSource") DataSource cdmDataSource, Environment environment,
+                                JdbcProperties jdbcProperties, @Qualifier("DbObjectMapper") ObjectMapper objectMapper,
+                                @Value("${db.postgres.batch_size:10000}") int batchSize,
+                                @Value("${db.postgres.batch_timeout_ms:1000}") long batchTimeoutMs,
+                                @Value("${db.postgres.batch_buffer_size:40000}") int bufferSize,
+                                @Value("${monitoring.collect.parallelism:4}") int collectParallelism,
+                                MeterRegistry meterRegistry) {
+        Binder binder = Binder.get(environment);
+        RoutingProperties routing = binder.bind("db.postgres.routing", RoutingProperties.class)
+                .orElseGet(RoutingProperties::new);
+        List<ShardProperties> shards = binder.bind("db.postgres.shards", Bindable.listOf(ShardProperties.class))
+                .orElse(Collections.emptyList());
+        List<AutoCloseable> resources = new ArrayList<>();
+        Function<HikariDataSource, DbService> newDbService = dataSource -> {
+            dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            resources.add(dataSource);
+            DbService dbService = new DbService(dataSource, objectMapper,
+                    new NamedParameterJdbcTemplate(jdbcTemplate(dataSource, jdbcProperties)), batchSize, batchTimeoutMs,
+                    bufferSize);
+            dbService.setMeterRegistry(meterRegistry);
+            resources.add(dbService);
+            return dbService;
+        };
+
+        if (shards.isEmpty()) {
+            ShardProperties replica = binder.bind("db.postgres.cdm-replica", ShardProperties.class).orElse(null);
+            DbService replicaService = isConfigured(replica) ? newDbService.apply(dataSource(binder,
+                    "db.postgres.cdm-replica", "postgres-pool-cdm-replica", replica, collectParallelism)) : null;
+            return withPoolSize(new ShardGroup(Map.of("cdm", router(cdmDbService, replicaService, routing,
+                    meterRegistry)), resources), cdmDataSource, resources);
+        }
+        Map<String, ReplicaRouter> routers = new LinkedHashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            ShardProperties shard = shards.get(i);
+            String name = shard.getName() != null ? shard.getName() : "shard" + i;
+            String prefix = "db.postgres.shards[" + i + "]";
+            DbService primary = newDbService.apply(dataSource(binder, prefix, "postgres-pool-cdm-" + name, shard,
+                    collectParallelism));
+            DbService replica = isConfigured(shard.getReplica()) ? newDbService.apply(dataSource(binder,
+                    prefix + ".replica", "postgres-pool-cdm-" + name + "-replica", shard.getReplica(),
+                    collectParallelism)) : null;
+            routers.put(name, router(primary, replica, routing, meterRegistry));
+            log.info("CDM shard {}: {}{}", name, shard.getUrl(),
+                    replica != null ? ", replica " + shard.getReplica().getUrl() : "");
+        }
+        return withPoolSize(new ShardGroup(routers, resources), cdmDataSource, resources);
+    }
+
+    private static ShardGroup withPoolSize(ShardGroup shardGroup, DataSource cdmDataSource,
+                                           List<AutoCloseable> resources) {
+        int poolSize = maximumPoolSize(cdmDataSource);
+        for (AutoCloseable resource : resources) {
+            if (resource instanceof DataSource dataSource) {
+                poolSize = Math.min(poolSize, maximumPoolSize(dataSource));
+            }
+        }
+        shardGroup.setPoolSize(poolSize);
+        return shardGroup;
+    }
+
+    private static int maximumPoolSize(DataSource dataSource) {
+        return dataSource instanceof HikariDataSource hikariDataSource
+                ? hikariDataSource.getMaximumPoolSize() : Integer.MAX_VALUE;
+    }
+
+    private static boolean isConfigured(ShardProperties properties) {
+        return properties != null && properties.getUrl() != null && !properties.getUrl().isBlank();
+    }
+
+    private static HikariDataSource dataSource(Binder binder, String prefix, String poolName,
+                                               ShardProperties properties, int collectParallelism) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(poolName);
+        dataSource.setJdbcUrl(properties.getUrl());
+        dataSource.setUsername(properties.getUsername());
+        dataSource.setPassword(properties.getPassword());
+        dataSource.setMinimumIdle(0);
+        dataSource.setMaximumPoolSize(collectParallelism);
+        binder.bind(prefix + ".hikari", Bindable.ofInstance(dataSource));
+        return dataSource;
+    }
+
+    private static ReplicaRouter router(DbService primary, DbService replica, RoutingProperties routing,
+                                        MeterRegistry meterRegistry) {
+        if (replica == null) {
+            return new ReplicaRouter(primary);
+        }
+        ReplicaRouter router = new ReplicaRouter(primary, replica, routing.getMaxLagMs(),
+                routing.getLagCheckIntervalMs());
+        RoutingProperties.Hedge hedge = routing.getHedge();
+        if (hedge.isEnabled()) {
+            router.setHedging(hedge.getWindow(), hedge.getMinSamples(), hedge.getInitialDelayMs());
+        }
+        router.setMeterRegistry(meterRegistry);
+        return router;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package rubbles.monitoring.coverage.config;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import rubbles.monitoring.coverage.model.AvailableClientBaseQueryResult;
+import rubbles.monitoring.coverage.model.CascadeCountQueryResult;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+import rubbles.monitoring.coverage.model.CoverageData;
+import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
+
+/**
+ * Reflection hints for the AOT build: the Lombok model classes are read through their generated accessors and
+ * constructors, and the crypt library is only on the classpath as a system-scoped jar.
+ */
+public class CoverageRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (Class<?> model : new Class<?>[]{AvailableClientBaseQueryResult.class, CommunicationCoverageQueryResult.class,
+                OfferCoverageQueryResult.class, CascadeCountQueryResult.class, CoverageData.class}) {
+            hints.reflection().registerType(model, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+                    MemberCategory.INVOKE_PUBLIC_METHODS, MemberCategory.DECLARED_FIELDS);
+        }
+        hints.reflection().registerType(TypeReference.of("com.glowbyte.a366.crypt.blowfish.Encryptor"),
+                MemberCategory.INVOKE_PUBLIC_METHODS);
+    }
+}
@@ -0,0 +1,25 @@
+package rubbles.monitoring.coverage.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * {@code db.postgres.routing}: when the section queries go to a replica instead of its primary, and when they are
+ * hedged on the primary.
+ */
+@Getter
+@Setter
+public class RoutingProperties {
+    private long maxLagMs = 60000;
+    private long lagCheckIntervalMs = 30000;
+    private Hedge hedge = new Hedge();
+
+    @Getter
+    @Setter
+    public static class Hedge {
+        private boolean enabled;
+        private int window = 100;
+        private int minSamples = 5;
+        private long initialDelayMs;
+    }
+}
@@ -0,0 +1,19 @@
+package rubbles.monitoring.coverage.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * One entry of {@code db.postgres.shards}; pool settings go under {@code db.postgres.shards[n].hikari}
+ * like they do for {@code db.postgres.cdm}. The optional {@code replica} is read the same way, with its pool
+ * settings under {@code db.postgres.shards[n].replica.hikari}.
+ */
+@Getter
+@Setter
+public class ShardProperties {
+    private String name;
+    private String url;
+    private String username;
+    private String password;
+    private ShardProperties replica;
+}
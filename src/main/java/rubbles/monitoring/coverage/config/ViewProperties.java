@@ -0,0 +1,19 @@
+package rubbles.monitoring.coverage.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One entry of {@code refresh.views}: a materialized view, the tables it is built from and the other declared
+ * views it reads, e.g. {@code REFRESH_VIEWS_0_NAME}, {@code REFRESH_VIEWS_0_SOURCES=cdm.comm,cdm.client}.
+ */
+@Getter
+@Setter
+public class ViewProperties {
+    private String name;
+    private List<String> sources = new ArrayList<>();
+    private List<String> dependsOn = new ArrayList<>();
+}
@@ -0,0 +1,135 @@
+package rubbles.monitoring.coverage.db;
+
+import rubbles.monitoring.coverage.model.AvailableClientBaseQueryResult;
+import rubbles.monitoring.coverage.model.CascadeCountQueryResult;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
+import rubbles.monitoring.coverage.model.Percentage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Merges the rows the CDM shards return for one section: counts of the same key are summed and the percentages are
+ * recomputed from the summed numerators and denominators. Clients are expected to live on exactly one shard, so
+ * unique client counts add up too.
+ */
+final class CoverageMerge {
+    private CoverageMerge() {
+    }
+
+    static List<AvailableClientBaseQueryResult> availableClientBase(List<List<AvailableClientBaseQueryResult>> shards) {
+        return merge(shards, AvailableClientBaseQueryResult::getBrand, (a, b) -> new AvailableClientBaseQueryResult(
+                a.getBrand(),
+                sum(a.getTotalClientsCount(), b.getTotalClientsCount()),
+                sum(a.getAvailableClientCount(), b.getAvailableClientCount()),
+                sum(a.getEmailCount(), b.getEmailCount()),
+                sum(a.getSmsCount(), b.getSmsCount()),
+                sum(a.getEmailAndSmsCount(), b.getEmailAndSmsCount()),
+                null, null, null
+        ), row -> new AvailableClientBaseQueryResult(
+                row.getBrand(),
+                row.getTotalClientsCount(),
+                row.getAvailableClientCount(),
+                row.getEmailCount(),
+                row.getSmsCount(),
+                row.getEmailAndSmsCount(),
+                Percentage.format(row.getEmailCount(), row.getAvailableClientCount()),
+                Percentage.format(row.getSmsCount(), row.getAvailableClientCount()),
+                Percentage.format(row.getEmailAndSmsCount(), row.getAvailableClientCount())
+        ));
+    }
+
+    /**
+     * Coverage can only be recomputed when the query returns {@code available_base}; without it merged rows have no
+     * coverage.
+     */
+    static List<CommunicationCoverageQueryResult> communicationCoverage(List<List<CommunicationCoverageQueryResult>> shards) {
+        return merge(shards, row -> List.of(String.valueOf(row.getBrand()), String.valueOf(row.getType()),
+                String.valueOf(row.getChannel())), (a, b) -> new CommunicationCoverageQueryResult(
+                a.getBrand(),
+                a.getType(),
+                a.getChannel(),
+                sum(a.getCommCount(), b.getCommCount()),
+                sum(a.getUniqueClientCount(), b.getUniqueClientCount()),
+                null,
+                null,
+                sum(a.getAvailableBase(), b.getAvailableBase())
+        ), row -> new CommunicationCoverageQueryResult(
+                row.getBrand(),
+                row.getType(),
+                row.getChannel(),
+                row.getCommCount(),
+                row.getUniqueClientCount(),
+                Percentage.ratio(row.getCommCount(), row.getUniqueClientCount()),
+                Percentage.format(row.getUniqueClientCount(), row.getAvailableBase()),
+                row.getAvailableBase()
+        ));
+    }
+
+    static List<OfferCoverageQueryResult> offerCoverage(List<List<OfferCoverageQueryResult>> shards) {
+        return merge(shards, OfferCoverageQueryResult::getBrand, (a, b) -> new OfferCoverageQueryResult(
+                a.getBrand(),
+                sum(a.getAvailableBase(), b.getAvailableBase()),
+                sum(a.getOfferCount(), b.getOfferCount()),
+                sum(a.getUniqueClientsWithOffer(), b.getUniqueClientsWithOffer()),
+                sum(a.getOffersWithComm(), b.getOffersWithComm()),
+                sum(a.getUniqueClientsWithOfferAndComm(), b.getUniqueClientsWithOfferAndComm()),
+                null,
+                null
+        ), row -> new OfferCoverageQueryResult(
+                row.getBrand(),
+                row.getAvailableBase(),
+                row.getOfferCount(),
+                row.getUniqueClientsWithOffer(),
+                row.getOffersWithComm(),
+                row.getUniqueClientsWithOfferAndComm(),
+                Percentage.format(row.getUniqueClientsWithOffer(), row.getAvailableBase()),
+                Percentage.format(row.getUniqueClientsWithOfferAndComm(), row.getAvailableBase())
+        ));
+    }
+
+    static List<CascadeCountQueryResult> cascadeCount(List<List<CascadeCountQueryResult>> shards) {
+        return merge(shards, CascadeCountQueryResult::getMessageDesc, (a, b) -> new CascadeCountQueryResult(
+                a.getMessageDesc(),
+                sum(a.getGzCount(), b.getGzCount()),
+                sum(a.getAptekaCount(), b.getAptekaCount()),
+                sum(a.getTotal(), b.getTotal())
+        ), UnaryOperator.identity());
+    }
+
+    /**
+     * Keys keep the order they are first seen in, so the merged report lists rows like the first shard does. Every
+     * merged row, including those found on one shard only, gets its percentages from {@code percentages}, so that a
+     * table does not mix the format of the query with that of {@link Percentage}.
+     */
+    private static <T> List<T> merge(List<List<T>> shards, Function<T, Object> key, BinaryOperator<T> combine,
+                                     UnaryOperator<T> percentages) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        Map<Object, T> merged = new LinkedHashMap<>();
+        for (List<T> rows : shards) {
+            for (T row : rows) {
+                merged.merge(key.apply(row), row, combine);
+            }
+        }
+        List<T> result = new ArrayList<>(merged.size());
+        for (T row : merged.values()) {
+            result.add(percentages.apply(row));
+        }
+        return result;
+    }
+
+    private static Long sum(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : a + b;
+    }
+}
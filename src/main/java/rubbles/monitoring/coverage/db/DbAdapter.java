@@ -1,30 +1,127 @@
 package rubbles.monitoring.coverage.db;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import rubbles.monitoring.coverage.common.db.DbService;
+import rubbles.monitoring.coverage.common.db.IndexedRowMapper;
+import rubbles.monitoring.coverage.common.db.ReplicaRouter;
+import rubbles.monitoring.coverage.common.db.ShardGroup;
+import rubbles.monitoring.coverage.incremental.IncrementalAggregator;
 import rubbles.monitoring.coverage.model.CascadeCountQueryResult;
 import rubbles.monitoring.coverage.model.AvailableClientBaseQueryResult;
 import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
 import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+import rubbles.monitoring.coverage.model.CoverageSection;
 
-import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static rubbles.monitoring.coverage.common.db.ColumnIndex.getLong;
 
 @Service
 @Slf4j
 public class DbAdapter {
 
+    static final IndexedRowMapper<AvailableClientBaseQueryResult> AVAILABLE_CLIENT_BASE_MAPPER = columns -> {
+        int brand = columns.indexOf("brand");
+        int totalClients = columns.indexOf("total_clients");
+        int availableClients = columns.indexOf("available_clients");
+        int emailCount = columns.indexOf("email_count");
+        int smsCount = columns.indexOf("sms_count");
+        int emailAndSmsCount = columns.indexOf("email_and_sms_count");
+        int emailPercentage = columns.indexOf("email_percentage");
+        int smsPercentage = columns.indexOf("sms_percentage");
+        int emailAndSmsPercentage = columns.indexOf("email_and_sms_percentage");
+        return (rs, rowNum) -> new AvailableClientBaseQueryResult(
+                rs.getString(brand),
+                getLong(rs, totalClients),
+                getLong(rs, availableClients),
+                getLong(rs, emailCount),
+                getLong(rs, smsCount),
+                getLong(rs, emailAndSmsCount),
+                rs.getString(emailPercentage),
+                rs.getString(smsPercentage),
+                rs.getString(emailAndSmsPercentage)
+        );
+    };
+
+    static final IndexedRowMapper<CommunicationCoverageQueryResult> COMMUNICATION_COVERAGE_MAPPER = columns -> {
+        int brand = columns.indexOf("brand");
+        int type = columns.indexOf("type");
+        int channel = columns.indexOf("channel");
+        int commCount = columns.indexOf("comm_count");
+        int uniqueClientCount = columns.indexOf("unique_client_count");
+        int communicationsPerClient = columns.indexOf("communications_per_client");
+        int coverage = columns.indexOf("coverage");
+        int availableBase = columns.indexOfOptional("available_base");
+        return (rs, rowNum) -> new CommunicationCoverageQueryResult(
+                rs.getString(brand),
+                rs.getString(type),
+                rs.getString(channel),
+                getLong(rs, commCount),
+                getLong(rs, uniqueClientCount),
+                rs.getBigDecimal(communicationsPerClient),
+                rs.getString(coverage),
+                getLong(rs, availableBase)
+        );
+    };
+
+    static final IndexedRowMapper<OfferCoverageQueryResult> OFFER_COVERAGE_MAPPER = columns -> {
+        int brand = columns.indexOf("brand");
+        int availableBase = columns.indexOf("available_base");
+        int offerCount = columns.indexOf("offer_count");
+        int uniqueClientsWithOffer = columns.indexOf("unique_clients_with_offer");
+        int offersWithComm = columns.indexOf("offers_with_comm");
+        int uniqueClientsWithOfferAndComm = columns.indexOf("unique_clients_with_offer_and_comm");
+        int offerCoverage = columns.indexOf("offer_coverage");
+        int offerWithCommCoverage = columns.indexOf("offer_with_comm_coverage");
+        return (rs, rowNum) -> new OfferCoverageQueryResult(
+                rs.getString(brand),
+                getLong(rs, availableBase),
+                getLong(rs, offerCount),
+                getLong(rs, uniqueClientsWithOffer),
+                getLong(rs, offersWithComm),
+                getLong(rs, uniqueClientsWithOfferAndComm),
+                rs.getString(offerCoverage),
+                rs.getString(offerWithCommCoverage)
+        );
+    };
+
+    static final IndexedRowMapper<CascadeCountQueryResult> CASCADE_COUNT_MAPPER = columns -> {
+        int messageDesc = columns.indexOf("MESSAGE_DESC");
+        int gzCount = columns.indexOf("GZ");
+        int aptekaCount = columns.indexOf("366");
+        int total = columns.indexOf("total");
+        return (rs, rowNum) -> new CascadeCountQueryResult(
+                rs.getString(messageDesc),
+                getLong(rs, gzCount),
+                getLong(rs, aptekaCount),
+                getLong(rs, total)
+        );
+    };
+
     @Autowired
     @Qualifier("cdmDbService")
     private DbService cdmDbService;
 
+    @Autowired
+    @Qualifier("cdmShards")
+    private ShardGroup cdmShards;
+
+    @Autowired
+    private IncrementalAggregator incrementalAggregator;
+
     @Value("${db.tables.monitoring-recipients}")
     private String MONITORING_RECIPIENTS;
 
@@ -43,9 +140,43 @@ public class DbAdapter {
     @Value("${sql.select-recipients-query}")
     private String selectRecipientsQuery;
 
+    @Value("${sql.select-available-client-base-detail-query:}")
+    private String selectAvailableClientBaseDetailQuery;
+
+    @Value("${sql.select-communication-coverage-detail-query:}")
+    private String selectCommunicationCoverageDetailQuery;
+
+    @Value("${sql.select-offer-coverage-detail-query:}")
+    private String selectOfferCoverageDetailQuery;
+
+    @Value("${sql.select-cascade-count-detail-query:}")
+    private String selectCascadeCountDetailQuery;
+
+    @Value("${attachments.fetch-size:1000}")
+    private int detailFetchSize;
+
+    private final Map<CoverageSection, String> detailQueries = new EnumMap<>(CoverageSection.class);
+
+    @PostConstruct
+    void registerQueryNames() {
+        cdmShards.registerQueryName(selectAvailableClientBaseQuery, "available_client_base");
+        cdmShards.registerQueryName(selectCommunicationCoverageQuery, "communication_coverage");
+        cdmShards.registerQueryName(selectOfferCoverageQuery, "offer_coverage");
+        cdmShards.registerQueryName(selectCascadeCountQuery, "cascade_count");
+        cdmDbService.registerQueryName(replaceSql(selectRecipientsQuery), "recipients");
+        putDetailQuery(CoverageSection.AVAILABLE_CLIENT_BASE, selectAvailableClientBaseDetailQuery);
+        putDetailQuery(CoverageSection.COMMUNICATION_COVERAGE, selectCommunicationCoverageDetailQuery);
+        putDetailQuery(CoverageSection.OFFER_COVERAGE, selectOfferCoverageDetailQuery);
+        putDetailQuery(CoverageSection.CASCADE_COUNT, selectCascadeCountDetailQuery);
+        if (cdmShards.size() > 1 && incrementalAggregator.isEnabled()) {
+            log.warn("Incremental aggregation reads the primary CDM only, communication and offer coverage won't"
+                    + " include the other {} shards.", cdmShards.size() - 1);
+        }
+    }
+
     public List<Map<String, Object>> getRecipients() throws Exception {
         try {
-            return cdmDbService.select(replaceSql(selectRecipientsQuery), (Map<String, Object>) null);
+            return cdmDbService.selectCached(replaceSql(selectRecipientsQuery), null);
         } catch (Exception e) {
             throw new Exception("Error selecting from monitoring recipients table: " + MONITORING_RECIPIENTS + e.getMessage());
         }
@@ -53,19 +184,8 @@ public class DbAdapter {
 
     public List<AvailableClientBaseQueryResult> selectAvailableClientBaseData() throws Exception {
         try {
-            String query = selectAvailableClientBaseQuery;
-            List<Map<String, Object>> rows = cdmDbService.select(query, new HashMap<>());
-            return rows.stream().map(row -> new AvailableClientBaseQueryResult(
-                    (String) row.get("brand"),
-                    (Long) row.get("total_clients"),
-                    (Long) row.get("available_clients"),
-                    (Long) row.get("email_count"),
-                    (Long) row.get("sms_count"),
-                    (Long) row.get("email_and_sms_count"),
-                    (String) row.get("email_percentage"),
-                    (String) row.get("sms_percentage"),
-                    (String) row.get("email_and_sms_percentage")
-            )).collect(Collectors.toList());
+            return CoverageMerge.availableClientBase(
+                    cdmShards.selectEach(selectAvailableClientBaseQuery, new HashMap<>(), AVAILABLE_CLIENT_BASE_MAPPER));
         } catch (Exception e) {
             throw new Exception("Error selecting data from database" + e.getMessage());
         }
@@ -73,17 +193,11 @@ public class DbAdapter {
 
     public List<CommunicationCoverageQueryResult> selectCommunicationCoverageData() throws Exception {
         try {
-            String query = selectCommunicationCoverageQuery;
-            List<Map<String, Object>> rows = cdmDbService.select(query, new HashMap<>());
-            return rows.stream().map(row -> new CommunicationCoverageQueryResult(
-                    (String) row.get("brand"),
-                    (String) row.get("type"),
-                    (String) row.get("channel"),
-                    (Long) row.get("comm_count"),
-                    (Long) row.get("unique_client_count"),
-                    (BigDecimal) row.get("communications_per_client"),
-                    (String) row.get("coverage")
-            )).collect(Collectors.toList());
+            if (incrementalAggregator.isEnabled()) {
+                return incrementalAggregator.selectCommunicationCoverageData(LocalDate.now());
+            }
+            return CoverageMerge.communicationCoverage(
+                    cdmShards.selectEach(selectCommunicationCoverageQuery, new HashMap<>(), COMMUNICATION_COVERAGE_MAPPER));
         } catch (Exception e) {
             throw new Exception("Error selecting data from database" + e.getMessage());
         }
@@ -91,18 +205,11 @@ public class DbAdapter {
 
     public List<OfferCoverageQueryResult> selectOfferCoverageData() throws Exception {
         try {
-            String query = selectOfferCoverageQuery;
-            List<Map<String, Object>> rows = cdmDbService.select(query, new HashMap<>());
-            return rows.stream().map(row -> new OfferCoverageQueryResult(
-                    (String) row.get("brand"),
-                    (Long) row.get("available_base"),
-                    (Long) row.get("offer_count"),
-                    (Long) row.get("unique_clients_with_offer"),
-                    (Long) row.get("offers_with_comm"),
-                    (Long) row.get("unique_clients_with_offer_and_comm"),
-                    (String) row.get("offer_coverage"),
-                    (String) row.get("offer_with_comm_coverage")
-            )).collect(Collectors.toList());
+            if (incrementalAggregator.isEnabled()) {
+                return incrementalAggregator.selectOfferCoverageData(LocalDate.now());
+            }
+            return CoverageMerge.offerCoverage(
+                    cdmShards.selectEach(selectOfferCoverageQuery, new HashMap<>(), OFFER_COVERAGE_MAPPER));
         } catch (Exception e) {
             throw new Exception("Error selecting data from database" + e.getMessage());
         }
@@ -110,19 +217,48 @@ public class DbAdapter {
 
     public List<CascadeCountQueryResult> selectCascadeCountData() throws Exception {
         try {
-            String query = selectCascadeCountQuery;
-            List<Map<String, Object>> rows = cdmDbService.select(query, new HashMap<>());
-            return rows.stream().map(row -> new CascadeCountQueryResult(
-                    (String) row.get("MESSAGE_DESC"),
-                    (Long) row.get("GZ"),
-                    (Long) row.get("366"),
-                    (Long) row.get("total")
-            )).collect(Collectors.toList());
+            return CoverageMerge.cascadeCount(
+                    cdmShards.selectEach(selectCascadeCountQuery, new HashMap<>(), CASCADE_COUNT_MAPPER));
         } catch (Exception e) {
             throw new Exception("Error selecting data from database" + e.getMessage());
         }
     }
 
+    private void putDetailQuery(CoverageSection section, String sql) {
+        if (sql != null && !sql.isBlank()) {
+            detailQueries.put(section, sql);
+            cdmShards.registerQueryName(sql, section.name().toLowerCase(Locale.ROOT) + "_detail");
+        }
+    }
+
+    public boolean hasDetail(CoverageSection section) {
+        return detailQueries.containsKey(section);
+    }
+
+    /**
+     * Streams the detail rows of {@code section} from every shard in turn, one fetched batch in memory at a time,
+     * until they run out or {@code rowHandler} returns {@code false}.
+     */
+    public void streamDetail(CoverageSection section, Predicate<Map<String, Object>> rowHandler) throws Exception {
+        String sql = detailQueries.get(section);
+        if (sql == null) {
+            return;
+        }
+        try {
+            for (ReplicaRouter shard : cdmShards.getShards().values()) {
+                try (Stream<Map<String, Object>> rows = shard.stream(sql, new HashMap<>(), detailFetchSize)) {
+                    Iterator<Map<String, Object>> iterator = rows.iterator();
+                    while (iterator.hasNext()) {
+                        if (!rowHandler.test(iterator.next())) {
+                            return;
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new Exception("Error selecting " + section.getDescription() + " detail from database" + e.getMessage(), e);
+        }
+    }
 
     private String replaceSql(String sql) {
         return sql
@@ -0,0 +1,66 @@
+package rubbles.monitoring.coverage.incremental;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Partial aggregate of one coverage row for one day. Counts are summed on merge, client sketches are united and the
+ * available base is taken from the latest day, since it is a state rather than a flow.
+ */
+@Getter
+@AllArgsConstructor
+class DailyAggregate {
+    private LocalDate day;
+    private String brand;
+    private String type;
+    private String channel;
+    private String sourceVersion;
+    private Long eventCount;
+    private HyperLogLog clients;
+    private Long extraCount;
+    private HyperLogLog extraClients;
+    private Long availableBase;
+
+    String key() {
+        return brand + "|" + type + "|" + channel;
+    }
+
+    DailyAggregate merge(DailyAggregate other) {
+        eventCount = sum(eventCount, other.eventCount);
+        extraCount = sum(extraCount, other.extraCount);
+        clients.merge(other.clients);
+        extraClients.merge(other.extraClients);
+        if (other.day.isAfter(day)) {
+            day = other.day;
+            availableBase = other.availableBase;
+        }
+        return this;
+    }
+
+    Map<String, Object> toRow(String section) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("section", section);
+        row.put("day", day);
+        row.put("brand", brand);
+        row.put("type", type);
+        row.put("channel", channel);
+        row.put("source_version", sourceVersion);
+        row.put("event_count", eventCount);
+        row.put("client_sketch", clients.toBytes());
+        row.put("extra_count", extraCount);
+        row.put("extra_sketch", extraClients.toBytes());
+        row.put("available_base", availableBase);
+        return row;
+    }
+
+    private static Long sum(Long left, Long right) {
+        if (left == null) {
+            return right;
+        }
+        return right == null ? left : left + right;
+    }
+}
@@ -0,0 +1,271 @@
+package rubbles.monitoring.coverage.incremental;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import rubbles.monitoring.coverage.common.db.ColumnIndex;
+import rubbles.monitoring.coverage.common.db.DbService;
+import rubbles.monitoring.coverage.common.db.IndexedRowMapper;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
+import rubbles.monitoring.coverage.model.Percentage;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static rubbles.monitoring.coverage.common.db.ColumnIndex.getLong;
+
+/**
+ * Builds the monthly communication and offer coverage from per-day partial aggregates kept in
+ * {@code db.tables.coverage-daily}:
+ * <pre>
+ * section varchar, day date, brand varchar, type varchar, channel varchar, source_version varchar,
+ * event_count bigint, client_sketch bytea, extra_count bigint, extra_sketch bytea, available_base bigint
+ * </pre>
+ * The day versions queries return {@code day, version} for {@code :from..:to}; a day is recomputed with the daily
+ * query ({@code :day}) only when its version differs from the stored one. Daily queries return the counts plus
+ * {@code client_ids} (and {@code comm_client_ids} for offers) arrays, which are folded into HyperLogLog sketches.
+ */
+@Service
+@Slf4j
+public class IncrementalAggregator {
+    static final String COMMUNICATION = "communication";
+    static final String OFFER = "offer";
+
+    private static final String SELECT_VERSIONS = "select day, max(source_version) as version from &coverage_daily"
+            + " where section = :section and day between :from and :to group by day";
+    private static final String SELECT_DAILIES = "select * from &coverage_daily"
+            + " where section = :section and day between :from and :to";
+    private static final String DELETE_DAY = "delete from &coverage_daily where section = :section and day = :day";
+
+    private static final IndexedRowMapper<Object[]> VERSION_MAPPER = columns -> {
+        int day = columns.indexOf("day");
+        int version = columns.indexOf("version");
+        return (rs, rowNum) -> new Object[]{rs.getObject(day, LocalDate.class), rs.getString(version)};
+    };
+
+    private static final IndexedRowMapper<DailyAggregate> STORED_MAPPER = columns -> {
+        int day = columns.indexOf("day");
+        int brand = columns.indexOf("brand");
+        int type = columns.indexOf("type");
+        int channel = columns.indexOf("channel");
+        int sourceVersion = columns.indexOf("source_version");
+        int eventCount = columns.indexOf("event_count");
+        int clientSketch = columns.indexOf("client_sketch");
+        int extraCount = columns.indexOf("extra_count");
+        int extraSketch = columns.indexOf("extra_sketch");
+        int availableBase = columns.indexOf("available_base");
+        return (rs, rowNum) -> new DailyAggregate(
+                rs.getObject(day, LocalDate.class),
+                rs.getString(brand),
+                rs.getString(type),
+                rs.getString(channel),
+                rs.getString(sourceVersion),
+                getLong(rs, eventCount),
+                HyperLogLog.fromBytes(rs.getBytes(clientSketch)),
+                getLong(rs, extraCount),
+                HyperLogLog.fromBytes(rs.getBytes(extraSketch)),
+                getLong(rs, availableBase)
+        );
+    };
+
+    @Autowired
+    @Qualifier("cdmDbService")
+    private DbService cdmDbService;
+
+    @Value("${monitoring.incremental.enabled:false}")
+    private boolean enabled;
+
+    @Value("${db.tables.coverage-daily:}")
+    private String coverageDailyTable;
+
+    @Value("${sql.select-communication-coverage-daily-query:}")
+    private String selectCommunicationCoverageDailyQuery;
+
+    @Value("${sql.select-communication-day-versions-query:}")
+    private String selectCommunicationDayVersionsQuery;
+
+    @Value("${sql.select-offer-coverage-daily-query:}")
+    private String selectOfferCoverageDailyQuery;
+
+    @Value("${sql.select-offer-day-versions-query:}")
+    private String selectOfferDayVersionsQuery;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    void registerQueryNames() {
+        if (!enabled) {
+            return;
+        }
+        cdmDbService.registerQueryName(selectCommunicationCoverageDailyQuery, "communication_coverage_daily");
+        cdmDbService.registerQueryName(selectCommunicationDayVersionsQuery, "communication_day_versions");
+        cdmDbService.registerQueryName(selectOfferCoverageDailyQuery, "offer_coverage_daily");
+        cdmDbService.registerQueryName(selectOfferDayVersionsQuery, "offer_day_versions");
+        cdmDbService.registerQueryName(replaceSql(SELECT_VERSIONS), "coverage_daily_versions");
+        cdmDbService.registerQueryName(replaceSql(SELECT_DAILIES), "coverage_daily_select");
+        cdmDbService.registerQueryName(replaceSql(DELETE_DAY), "coverage_daily_delete");
+    }
+
+    public List<CommunicationCoverageQueryResult> selectCommunicationCoverageData(LocalDate today) {
+        List<CommunicationCoverageQueryResult> result = new ArrayList<>();
+        for (DailyAggregate month : aggregateMonth(COMMUNICATION, selectCommunicationDayVersionsQuery,
+                selectCommunicationCoverageDailyQuery, dailyMapper(false), today)) {
+            long uniqueClients = month.getClients().estimate();
+            result.add(new CommunicationCoverageQueryResult(
+                    month.getBrand(),
+                    month.getType(),
+                    month.getChannel(),
+                    month.getEventCount(),
+                    uniqueClients,
+                    Percentage.ratio(month.getEventCount(), uniqueClients),
+                    Percentage.format(uniqueClients, month.getAvailableBase()),
+                    month.getAvailableBase()
+            ));
+        }
+        return result;
+    }
+
+    public List<OfferCoverageQueryResult> selectOfferCoverageData(LocalDate today) {
+        List<OfferCoverageQueryResult> result = new ArrayList<>();
+        for (DailyAggregate month : aggregateMonth(OFFER, selectOfferDayVersionsQuery,
+                selectOfferCoverageDailyQuery, dailyMapper(true), today)) {
+            long clientsWithOffer = month.getClients().estimate();
+            long clientsWithOfferAndComm = month.getExtraClients().estimate();
+            result.add(new OfferCoverageQueryResult(
+                    month.getBrand(),
+                    month.getAvailableBase(),
+                    month.getEventCount(),
+                    clientsWithOffer,
+                    month.getExtraCount(),
+                    clientsWithOfferAndComm,
+                    Percentage.format(clientsWithOffer, month.getAvailableBase()),
+                    Percentage.format(clientsWithOfferAndComm, month.getAvailableBase())
+            ));
+        }
+        return result;
+    }
+
+    private List<DailyAggregate> aggregateMonth(String section, String versionsQuery, String dailyQuery,
+                                                IndexedRowMapper<DailyAggregate> dailyMapper, LocalDate today) {
+        LocalDate from = today.withDayOfMonth(1);
+        Map<String, Object> range = new HashMap<>();
+        range.put("section", section);
+        range.put("from", from);
+        range.put("to", today);
+
+        Map<LocalDate, String> stored = versions(replaceSql(SELECT_VERSIONS), range);
+        Map<LocalDate, String> source = versions(versionsQuery, range);
+
+        List<Map<String, Object>> changedDays = new ArrayList<>();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(today); day = day.plusDays(1)) {
+            String version = source.get(day);
+            if (Objects.equals(version, stored.get(day))) {
+                continue;
+            }
+            Map<String, Object> key = new HashMap<>();
+            key.put("section", section);
+            key.put("day", day);
+            changedDays.add(key);
+            if (version != null) {
+                Map<String, Object> params = new HashMap<>();
+                params.put("day", day);
+                for (DailyAggregate daily : cdmDbService.select(dailyQuery, params, dailyMapper)) {
+                    rows.add(new DailyAggregate(day, daily.getBrand(), daily.getType(), daily.getChannel(), version,
+                            daily.getEventCount(), daily.getClients(), daily.getExtraCount(), daily.getExtraClients(),
+                            daily.getAvailableBase()).toRow(section));
+                }
+            }
+        }
+        log.info("Section {}: {} of {} days changed since the last run", section, changedDays.size(),
+                from.until(today).getDays() + 1);
+
+        if (!changedDays.isEmpty()) {
+            // one transaction, so that a failed or cancelled insert leaves the previous aggregates of the days
+            cdmDbService.inTransaction(() -> {
+                cdmDbService.batchUpdate(replaceSql(DELETE_DAY), changedDays);
+                if (!rows.isEmpty()) {
+                    cdmDbService.simpleBatchInsert(coverageDailyTable, rows);
+                }
+            });
+        }
+
+        Map<String, DailyAggregate> merged = new TreeMap<>();
+        cdmDbService.select(replaceSql(SELECT_DAILIES), range, STORED_MAPPER,
+                daily -> merged.merge(daily.key(), daily, DailyAggregate::merge));
+        return new ArrayList<>(merged.values());
+    }
+
+    private Map<LocalDate, String> versions(String sql, Map<String, Object> range) {
+        Map<LocalDate, String> versions = new HashMap<>();
+        cdmDbService.select(sql, range, VERSION_MAPPER, row -> versions.put((LocalDate) row[0], (String) row[1]));
+        return versions;
+    }
+
+    private static IndexedRowMapper<DailyAggregate> dailyMapper(boolean offer) {
+        return columns -> {
+            int brand = columns.indexOf("brand");
+            int type = offer ? 0 : columns.indexOf("type");
+            int channel = offer ? 0 : columns.indexOf("channel");
+            int eventCount = columns.indexOf(offer ? "offer_count" : "comm_count");
+            int clientIds = columns.indexOf("client_ids");
+            int extraCount = offer ? columns.indexOf("offers_with_comm") : 0;
+            int extraClientIds = offer ? columns.indexOf("comm_client_ids") : 0;
+            int availableBase = columns.indexOf("available_base");
+            return (rs, rowNum) -> new DailyAggregate(
+                    null,
+                    rs.getString(brand),
+                    ColumnIndex.getString(rs, type),
+                    ColumnIndex.getString(rs, channel),
+                    null,
+                    getLong(rs, eventCount),
+                    sketch(rs, clientIds),
+                    getLong(rs, extraCount),
+                    sketch(rs, extraClientIds),
+                    getLong(rs, availableBase)
+            );
+        };
+    }
+
+    private static HyperLogLog sketch(ResultSet rs, int column) throws SQLException {
+        HyperLogLog sketch = new HyperLogLog();
+        if (column == 0) {
+            return sketch;
+        }
+        Array array = rs.getArray(column);
+        if (array == null) {
+            return sketch;
+        }
+        try {
+            for (Object id : (Object[]) array.getArray()) {
+                if (id instanceof Number number) {
+                    sketch.add(number.longValue());
+                } else if (id != null) {
+                    sketch.add(id.toString());
+                }
+            }
+        } finally {
+            array.free();
+        }
+        return sketch;
+    }
+
+    private String replaceSql(String sql) {
+        return sql
+                .replace("&coverage_daily", coverageDailyTable);
+    }
+}
@@ -0,0 +1,91 @@
+package rubbles.monitoring.coverage.metrics;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+
+/**
+ * Exports the registry once at the end of a run: as a Prometheus text file (e.g. for the node exporter textfile
+ * collector) and/or with a PUT to a push endpoint such as {@code http://pushgateway:9091/metrics/job/coverage}.
+ */
+@Service
+@Slf4j
+public class MetricsExporter {
+
+    @Autowired
+    private PrometheusMeterRegistry meterRegistry;
+
+    @Value("${metrics.export.file:}")
+    private String exportFile;
+
+    @Value("${metrics.export.push-url:}")
+    private String pushUrl;
+
+    @Value("${metrics.export.push-timeout-ms:10000}")
+    private long pushTimeoutMs;
+
+    public void export() {
+        if (exportFile.isBlank() && pushUrl.isBlank()) {
+            return;
+        }
+        String scrape = meterRegistry.scrape();
+        if (!exportFile.isBlank()) {
+            try {
+                writeFile(Path.of(exportFile), scrape);
+                log.info("Metrics written to {}", exportFile);
+            } catch (Exception e) {
+                log.error("Error writing metrics to {}: {}", exportFile, e.getMessage(), e);
+            }
+        }
+        if (!pushUrl.isBlank()) {
+            try {
+                push(scrape);
+                log.info("Metrics pushed to {}", pushUrl);
+            } catch (Exception e) {
+                log.error("Error pushing metrics to {}: {}", pushUrl, e.getMessage(), e);
+            }
+        }
+    }
+
+    private static void writeFile(Path path, String scrape) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        // written aside and moved, so a collector never reads a half-written file
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(tmp, scrape, StandardCharsets.UTF_8);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void push(String scrape) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(pushTimeoutMs))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(pushUrl))
+                .timeout(Duration.ofMillis(pushTimeoutMs))
+                .header("Content-Type", TextFormat.CONTENT_TYPE_004)
+                .PUT(HttpRequest.BodyPublishers.ofString(scrape, StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("push endpoint returned " + response.statusCode() + ": " + response.body());
+        }
+    }
+}
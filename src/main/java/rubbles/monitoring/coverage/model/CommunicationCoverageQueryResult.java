@@ -15,4 +15,13 @@ public class CommunicationCoverageQueryResult {
     private Long uniqueClientCount;
     private BigDecimal communicationsPerClient;
     private String coverage;
+    /**
+     * Denominator of {@code coverage} when the query returns it; needed to recompute coverage of merged rows.
+     */
+    private Long availableBase;
+
+    public CommunicationCoverageQueryResult(String brand, String type, String channel, Long commCount,
+                                            Long uniqueClientCount, BigDecimal communicationsPerClient, String coverage) {
+        this(brand, type, channel, commCount, uniqueClientCount, communicationsPerClient, coverage, null);
+    }
 }
@@ -0,0 +1,33 @@
+package rubbles.monitoring.coverage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+@Getter
+@AllArgsConstructor
+public class CoverageData {
+    private List<AvailableClientBaseQueryResult> availableClientBaseData;
+    private List<CommunicationCoverageQueryResult> communicationCoverageData;
+    private List<OfferCoverageQueryResult> offerCoverageData;
+    private List<CascadeCountQueryResult> cascadeCountData;
+    /**
+     * Sections cut off by the run deadline or their own budget; their lists are empty.
+     */
+    private Set<CoverageSection> timedOutSections;
+
+    public CoverageData(List<AvailableClientBaseQueryResult> availableClientBaseData,
+                        List<CommunicationCoverageQueryResult> communicationCoverageData,
+                        List<OfferCoverageQueryResult> offerCoverageData,
+                        List<CascadeCountQueryResult> cascadeCountData) {
+        this(availableClientBaseData, communicationCoverageData, offerCoverageData, cascadeCountData,
+                EnumSet.noneOf(CoverageSection.class));
+    }
+
+    public boolean isTimedOut(CoverageSection section) {
+        return timedOutSections.contains(section);
+    }
+}
@@ -0,0 +1,75 @@
+package rubbles.monitoring.coverage.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The sections of one {@link CoverageData} grouped by brand, and communication coverage also by channel, so that
+ * the data of every {@link ReportFilter} is picked from the groups instead of filtering all rows again. Groups keep
+ * the order their first row had in the section, rows keep their order within a group.
+ * <p>
+ * The cascade count has no brand or channel rows and is shared by all filters.
+ */
+public class CoverageIndex {
+    private final CoverageData data;
+    private final Map<String, List<AvailableClientBaseQueryResult>> availableClientBaseByBrand;
+    private final Map<String, Map<String, List<CommunicationCoverageQueryResult>>> communicationCoverageByBrand;
+    private final Map<String, List<OfferCoverageQueryResult>> offerCoverageByBrand;
+
+    public CoverageIndex(CoverageData data) {
+        this.data = data;
+        this.availableClientBaseByBrand = group(data.getAvailableClientBaseData(), AvailableClientBaseQueryResult::getBrand);
+        this.communicationCoverageByBrand = new LinkedHashMap<>();
+        group(data.getCommunicationCoverageData(), CommunicationCoverageQueryResult::getBrand)
+                .forEach((brand, rows) -> communicationCoverageByBrand.put(brand,
+                        group(rows, CommunicationCoverageQueryResult::getChannel)));
+        this.offerCoverageByBrand = group(data.getOfferCoverageData(), OfferCoverageQueryResult::getBrand);
+    }
+
+    public CoverageData select(ReportFilter filter) {
+        if (filter.isAll()) {
+            return data;
+        }
+        List<CommunicationCoverageQueryResult> communicationCoverage = new ArrayList<>();
+        communicationCoverageByBrand.forEach((brand, byChannel) -> {
+            if (filter.acceptsBrand(brand)) {
+                byChannel.forEach((channel, rows) -> {
+                    if (filter.acceptsChannel(channel)) {
+                        communicationCoverage.addAll(rows);
+                    }
+                });
+            }
+        });
+        return new CoverageData(
+                select(availableClientBaseByBrand, filter),
+                communicationCoverage,
+                select(offerCoverageByBrand, filter),
+                data.getCascadeCountData(),
+                data.getTimedOutSections());
+    }
+
+    private static <T> List<T> select(Map<String, List<T>> byBrand, ReportFilter filter) {
+        List<T> selected = new ArrayList<>();
+        byBrand.forEach((brand, rows) -> {
+            if (filter.acceptsBrand(brand)) {
+                selected.addAll(rows);
+            }
+        });
+        return selected;
+    }
+
+    private static <T> Map<String, List<T>> group(List<T> rows, Function<T, String> key) {
+        if (rows == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<T>> groups = new LinkedHashMap<>();
+        for (T row : rows) {
+            groups.computeIfAbsent(key.apply(row), k -> new ArrayList<>()).add(row);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,15 @@
+package rubbles.monitoring.coverage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum CoverageSection {
+    AVAILABLE_CLIENT_BASE("available client base"),
+    COMMUNICATION_COVERAGE("communication coverage"),
+    OFFER_COVERAGE("offer coverage"),
+    CASCADE_COUNT("cascade count");
+
+    private final String description;
+}
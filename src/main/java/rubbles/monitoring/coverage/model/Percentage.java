@@ -0,0 +1,25 @@
+package rubbles.monitoring.coverage.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+public final class Percentage {
+    private Percentage() {
+    }
+
+    public static String format(Long numerator, Long denominator) {
+        if (numerator == null || denominator == null || denominator == 0) {
+            return null;
+        }
+        return BigDecimal.valueOf(numerator * 100)
+                .divide(BigDecimal.valueOf(denominator), 2, RoundingMode.HALF_UP)
+                .toPlainString() + "%";
+    }
+
+    public static BigDecimal ratio(Long numerator, Long denominator) {
+        if (numerator == null || denominator == null || denominator == 0) {
+            return null;
+        }
+        return BigDecimal.valueOf(numerator).divide(BigDecimal.valueOf(denominator), 2, RoundingMode.HALF_UP);
+    }
+}
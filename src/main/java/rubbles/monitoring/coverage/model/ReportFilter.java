@@ -0,0 +1,63 @@
+package rubbles.monitoring.coverage.model;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Brands and channels a recipient's report is limited to; an empty set means no limit. Values are compared
+ * ignoring case and surrounding spaces, so that equal filters written differently share one rendered report.
+ */
+@Getter
+@EqualsAndHashCode
+public class ReportFilter {
+    public static final ReportFilter ALL = new ReportFilter(Collections.emptySet(), Collections.emptySet());
+
+    private final Set<String> brands;
+    private final Set<String> channels;
+
+    public ReportFilter(Collection<String> brands, Collection<String> channels) {
+        this.brands = normalize(brands);
+        this.channels = normalize(channels);
+    }
+
+    public boolean isAll() {
+        return brands.isEmpty() && channels.isEmpty();
+    }
+
+    public boolean acceptsBrand(String brand) {
+        return brands.isEmpty() || brands.contains(normalize(brand));
+    }
+
+    public boolean acceptsChannel(String channel) {
+        return channels.isEmpty() || channels.contains(normalize(channel));
+    }
+
+    private static Set<String> normalize(Collection<String> values) {
+        Set<String> normalized = new TreeSet<>();
+        if (values != null) {
+            for (String value : values) {
+                String key = normalize(value);
+                if (!key.isEmpty()) {
+                    normalized.add(key);
+                }
+            }
+        }
+        return Collections.unmodifiableSet(normalized);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toUpperCase(Locale.ROOT);
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "all" : "brands=" + (brands.isEmpty() ? "all" : brands)
+                + ", channels=" + (channels.isEmpty() ? "all" : channels);
+    }
+}
@@ -0,0 +1,299 @@
+package rubbles.monitoring.coverage.refresh;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import rubbles.monitoring.coverage.common.core.CommonException;
+import rubbles.monitoring.coverage.common.db.DbService;
+import rubbles.monitoring.coverage.common.db.ReplicaRouter;
+import rubbles.monitoring.coverage.common.db.ShardGroup;
+import rubbles.monitoring.coverage.config.ViewProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes the materialized views the section queries read from, before the sections are collected. The views
+ * are declared in {@code refresh.views} and refreshed level by level: a level holds the views whose dependencies
+ * are all in earlier levels, and its views are refreshed in parallel on every CDM shard.
+ * <p>
+ * A view is only refreshed when the signature of its sources, built from their {@code pg_stat_user_tables} write
+ * counters and file nodes (including partitions), differs from the one stored with its last refresh in
+ * {@code db.tables.refresh-log}, or when a view it depends on was refreshed in this run:
+ * <pre>
+ * view_name varchar primary key, source_signature varchar, refreshed_at timestamp, duration_ms bigint
+ * </pre>
+ * Statistics reach {@code pg_stat_user_tables} with a short delay, so writes committed just before a run may only
+ * trigger the refresh of the next one. A populated view is refreshed {@code CONCURRENTLY}, which needs a unique
+ * index on it; an unpopulated one is refreshed plainly. A failed refresh leaves the view, and the views depending
+ * on it, as they were; the report is then built from them anyway. A view declared without sources is refreshed
+ * on every run.
+ * <p>
+ * All refreshes of a run share {@code refresh.timeout-ms}: each one runs with the time left of it as its
+ * {@code statement_timeout}, and the views not refreshed when it is used up count as failed. After a shard has
+ * refreshed a view, its section queries stay on the primary until its replica has replayed the refresh.
+ */
+@Service
+@Slf4j
+public class MaterializedViewRefresher {
+    private static final String SELECT_SIGNATURE = "select md5(string_agg(concat_ws(':', tree.relid::regclass::text,"
+            + " stat.n_tup_ins, stat.n_tup_upd, stat.n_tup_del, pg_relation_filenode(tree.relid)), ','"
+            + " order by tree.relid::regclass::text)) as signature"
+            + " from unnest(cast(array[:sources] as regclass[])) as source(rel)"
+            + " cross join lateral pg_partition_tree(source.rel) as tree"
+            + " left join pg_stat_user_tables stat on stat.relid = tree.relid";
+    private static final String SELECT_POPULATED = "select relispopulated from pg_class"
+            + " where oid = cast(:view as regclass)";
+    private static final String SELECT_LOG = "select view_name, source_signature from &refresh_log";
+    private static final String UPSERT_LOG = "insert into &refresh_log"
+            + " (view_name, source_signature, refreshed_at, duration_ms) values (:view, :signature, now(), :duration)"
+            + " on conflict (view_name) do update set source_signature = excluded.source_signature,"
+            + " refreshed_at = excluded.refreshed_at, duration_ms = excluded.duration_ms";
+
+    private enum Outcome {
+        SKIPPED, REFRESHED, FAILED
+    }
+
+    @Autowired
+    @Qualifier("cdmShards")
+    private ShardGroup cdmShards;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${refresh.enabled:false}")
+    private boolean enabled;
+
+    @Value("${refresh.parallelism:${monitoring.collect.parallelism:4}}")
+    private int parallelism;
+
+    @Value("${refresh.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${db.tables.refresh-log:}")
+    private String refreshLogTable;
+
+    private List<List<ViewProperties>> levels = Collections.emptyList();
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        if (refreshLogTable.isBlank()) {
+            throw new IllegalStateException("refresh.enabled requires db.tables.refresh-log");
+        }
+        if (timeoutMs <= 0) {
+            throw new IllegalStateException("refresh.enabled requires a positive refresh.timeout-ms");
+        }
+        List<ViewProperties> views = Binder.get(environment)
+                .bind("refresh.views", Bindable.listOf(ViewProperties.class))
+                .orElse(Collections.emptyList());
+        levels = levels(views);
+        for (ReplicaRouter shard : cdmShards.getShards().values()) {
+            shard.getPrimary().registerQueryName(SELECT_SIGNATURE, "view_signature");
+            shard.getPrimary().registerQueryName(replaceSql(SELECT_LOG), "refresh_log");
+            shard.getPrimary().registerQueryName(replaceSql(UPSERT_LOG), "refresh_log");
+        }
+        log.info("Materialized views to refresh, by level: {}", levels.stream()
+                .map(level -> level.stream().map(ViewProperties::getName).toList()).toList());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Orders the views into levels; a dependency that is not a declared view is an error, as is a cycle.
+     */
+    static List<List<ViewProperties>> levels(List<ViewProperties> views) {
+        Map<String, ViewProperties> byName = new LinkedHashMap<>();
+        for (ViewProperties view : views) {
+            if (view.getName() == null || view.getName().isBlank()) {
+                throw new IllegalStateException("refresh.views entry without a name");
+            }
+            byName.put(view.getName(), view);
+        }
+        for (ViewProperties view : views) {
+            for (String dependency : view.getDependsOn()) {
+                if (!byName.containsKey(dependency)) {
+                    throw new IllegalStateException("view " + view.getName() + " depends on undeclared view "
+                            + dependency);
+                }
+            }
+        }
+        List<List<ViewProperties>> levels = new ArrayList<>();
+        Set<String> placed = new HashSet<>();
+        List<ViewProperties> pending = new ArrayList<>(byName.values());
+        while (!pending.isEmpty()) {
+            List<ViewProperties> level = pending.stream()
+                    .filter(view -> placed.containsAll(view.getDependsOn()))
+                    .toList();
+            if (level.isEmpty()) {
+                throw new IllegalStateException("circular dependency between views "
+                        + pending.stream().map(ViewProperties::getName).toList());
+            }
+            level.forEach(view -> placed.add(view.getName()));
+            pending.removeAll(level);
+            levels.add(level);
+        }
+        return levels;
+    }
+
+    public void refresh() {
+        if (!enabled || levels.isEmpty()) {
+            return;
+        }
+        log.info("Refreshing materialized views...");
+        long startNanos = System.nanoTime();
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "view-refresh-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Outcome> outcomes = new TreeMap<>();
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (Map.Entry<String, ReplicaRouter> shard : cdmShards.getShards().entrySet()) {
+                if (refreshShard(executor, shard.getKey(), shard.getValue().getPrimary(), deadlineNanos, outcomes)) {
+                    // the replica serves the old view contents until it replays the refresh
+                    shard.getValue().requireReplayOfPrimary();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommonException("interrupted refreshing materialized views", e, CommonException.INTERRUPTED);
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Refreshed materialized views in {} ms: {}", (System.nanoTime() - startNanos) / 1_000_000, outcomes);
+    }
+
+    /**
+     * Refreshes the views of one shard and tells whether any of them was refreshed.
+     */
+    private boolean refreshShard(ExecutorService executor, String shard, DbService dbService, long deadlineNanos,
+                                 Map<String, Outcome> outcomes) throws InterruptedException {
+        Map<String, String> signatures = lastSignatures(dbService);
+        Map<String, Outcome> shardOutcomes = new HashMap<>();
+        for (List<ViewProperties> level : levels) {
+            Map<ViewProperties, Future<Outcome>> futures = new LinkedHashMap<>();
+            for (ViewProperties view : level) {
+                Outcome dependencies = view.getDependsOn().stream().map(shardOutcomes::get)
+                        .reduce(Outcome.SKIPPED, MaterializedViewRefresher::worst);
+                futures.put(view, executor.submit(() -> refreshView(shard, dbService, view,
+                        signatures.get(view.getName()), dependencies, deadlineNanos)));
+            }
+            for (Map.Entry<ViewProperties, Future<Outcome>> future : futures.entrySet()) {
+                Outcome outcome;
+                try {
+                    outcome = future.getValue().get();
+                } catch (ExecutionException e) {
+                    log.error("Error refreshing view {} on {}: {}", future.getKey().getName(), shard,
+                            e.getCause().getMessage(), e.getCause());
+                    outcome = record(future.getKey(), Outcome.FAILED, 0);
+                }
+                shardOutcomes.put(future.getKey().getName(), outcome);
+                outcomes.merge(future.getKey().getName(), outcome, MaterializedViewRefresher::worst);
+            }
+        }
+        return shardOutcomes.containsValue(Outcome.REFRESHED);
+    }
+
+    /**
+     * {@code FAILED} over {@code REFRESHED} over {@code SKIPPED}.
+     */
+    private static Outcome worst(Outcome a, Outcome b) {
+        return a.ordinal() > b.ordinal() ? a : b;
+    }
+
+    private Outcome refreshView(String shard, DbService dbService, ViewProperties view, String lastSignature,
+                                Outcome dependencies, long deadlineNanos) {
+        if (dependencies == Outcome.FAILED) {
+            log.warn("Not refreshing view {} on {}: a view it depends on failed to refresh", view.getName(), shard);
+            return record(view, Outcome.FAILED, 0);
+        }
+        String signature = view.getSources().isEmpty() ? null : signature(dbService, view);
+        if (dependencies == Outcome.SKIPPED && signature != null && signature.equals(lastSignature)) {
+            log.info("View {} on {} is up to date, sources unchanged since its last refresh", view.getName(), shard);
+            return record(view, Outcome.SKIPPED, 0);
+        }
+        long startNanos = System.nanoTime();
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - startNanos);
+        if (remainingMs <= 0) {
+            log.error("Not refreshing view {} on {}: the {} ms refresh timeout is used up", view.getName(), shard,
+                    timeoutMs);
+            return record(view, Outcome.FAILED, 0);
+        }
+        boolean populated = Boolean.TRUE.equals(dbService.select(SELECT_POPULATED, Map.of("view", view.getName()))
+                .get(0).get("relispopulated"));
+        Map<String, Object> row = new HashMap<>();
+        row.put("view", view.getName());
+        row.put("signature", signature);
+        dbService.inTransaction(() -> {
+            // 0 would mean no timeout
+            dbService.execute("set local statement_timeout = " + Math.max(1, remainingMs));
+            dbService.execute("refresh materialized view " + (populated ? "concurrently " : "") + view.getName());
+            row.put("duration", (System.nanoTime() - startNanos) / 1_000_000);
+            dbService.update(replaceSql(UPSERT_LOG), row);
+        });
+        long durationMs = (Long) row.get("duration");
+        log.info("Refreshed view {} on {} in {} ms", view.getName(), shard, durationMs);
+        return record(view, Outcome.REFRESHED, durationMs);
+    }
+
+    private String signature(DbService dbService, ViewProperties view) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("sources", view.getSources());
+        Object signature = dbService.select(SELECT_SIGNATURE, params).get(0).get("signature");
+        return signature == null ? null : signature.toString();
+    }
+
+    private Map<String, String> lastSignatures(DbService dbService) {
+        Map<String, String> signatures = new HashMap<>();
+        for (Map<String, Object> row : dbService.select(replaceSql(SELECT_LOG), new HashMap<>())) {
+            signatures.put((String) row.get("view_name"), (String) row.get("source_signature"));
+        }
+        return signatures;
+    }
+
+    private Outcome record(ViewProperties view, Outcome outcome, long durationMs) {
+        Timer.builder("view.refresh")
+                .description("Duration of materialized view refreshes")
+                .tags("view", view.getName(), "outcome", outcome.name().toLowerCase(Locale.ROOT))
+                .register(meterRegistry)
+                .record(Duration.ofMillis(durationMs));
+        return outcome;
+    }
+
+    private String replaceSql(String sql) {
+        return sql.replace("&refresh_log", refreshLogTable);
+    }
+}
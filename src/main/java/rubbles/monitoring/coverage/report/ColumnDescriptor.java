@@ -0,0 +1,60 @@
+package rubbles.monitoring.coverage.report;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.function.Function;
+
+@Getter
+public class ColumnDescriptor<T> {
+    private static final byte[] TEXT_CELL_OPEN = HtmlBody.utf8("<td>");
+    private static final byte[] AMOUNT_CELL_OPEN = HtmlBody.utf8("<td class=\"amount\">");
+    private static final byte[] CELL_CLOSE = HtmlBody.utf8("</td>");
+
+    public enum Kind {
+        TEXT, AMOUNT, DECIMAL, DELTA
+    }
+
+    private final String header;
+    private final Kind kind;
+    private final Function<T, ?> extractor;
+
+    private ColumnDescriptor(String header, Kind kind, Function<T, ?> extractor) {
+        this.header = header;
+        this.kind = kind;
+        this.extractor = extractor;
+    }
+
+    public static <T> ColumnDescriptor<T> text(String header, Function<T, String> extractor) {
+        return new ColumnDescriptor<>(header, Kind.TEXT, extractor);
+    }
+
+    public static <T> ColumnDescriptor<T> amount(String header, Function<T, Long> extractor) {
+        return new ColumnDescriptor<>(header, Kind.AMOUNT, extractor);
+    }
+
+    public static <T> ColumnDescriptor<T> delta(String header, Function<T, Long> extractor) {
+        return new ColumnDescriptor<>(header, Kind.DELTA, extractor);
+    }
+
+    public static <T> ColumnDescriptor<T> decimal(String header, Function<T, BigDecimal> extractor) {
+        return new ColumnDescriptor<>(header, Kind.DECIMAL, extractor);
+    }
+
+    void writeCell(HtmlBody out, T row) {
+        Object value = extractor.apply(row);
+        switch (kind) {
+            case TEXT -> out.write(TEXT_CELL_OPEN).writeText((String) value);
+            case AMOUNT -> out.write(AMOUNT_CELL_OPEN).writeAmount((Long) value);
+            case DECIMAL -> out.write(AMOUNT_CELL_OPEN).writeRaw(value == null ? "N/A" : ((BigDecimal) value).toPlainString());
+            case DELTA -> {
+                out.write(AMOUNT_CELL_OPEN);
+                if (value != null && (Long) value > 0) {
+                    out.writeRaw("+");
+                }
+                out.writeAmount((Long) value);
+            }
+        }
+        out.write(CELL_CLOSE);
+    }
+}
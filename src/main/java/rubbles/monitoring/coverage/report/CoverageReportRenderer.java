@@ -0,0 +1,135 @@
+package rubbles.monitoring.coverage.report;
+
+import org.springframework.stereotype.Component;
+import rubbles.monitoring.coverage.model.AvailableClientBaseQueryResult;
+import rubbles.monitoring.coverage.model.CascadeCountQueryResult;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+import rubbles.monitoring.coverage.model.CoverageData;
+import rubbles.monitoring.coverage.model.CoverageSection;
+import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
+import rubbles.monitoring.coverage.snapshot.SectionLayout;
+import rubbles.monitoring.coverage.snapshot.TrendColumns;
+
+import java.util.List;
+
+@Component
+public class CoverageReportRenderer {
+
+    private static final byte[] HEADER = HtmlBody.utf8("<html><head><style>"
+            + "  table { border-collapse: collapse; margin: 20px 0; }"
+            + "  th, td { border: 1px solid #ddd; padding: 8px 12px; text-align: left; }"
+            + "  th { background-color: #f2f2f2; }"
+            + "  th.main { background-color: #c0c0c0; text-align: center;}"
+            + "  td.amount { text-align: right; }"
+            + "</style></head><body>"
+            + "<h4>Добрый день!</h4>"
+            + "<p>В таблицах ниже представлены данные по покрытию за текущий месяц.</p>"
+            + "<p>Доступные клиенты: Клиенты, не входящие в ГКГ.</p>"
+            + "<p>Покрытие = Количество уникальных клиентов c коммуникацией / Доступность соответствующего канала.</p>");
+
+    private static final byte[] FOOTER = HtmlBody.utf8("</body></html>");
+
+    private static final String TIMED_OUT = "Данные не получены: превышено время ожидания запроса";
+
+    static final HtmlTable<AvailableClientBaseQueryResult> AVAILABLE_CLIENT_BASE_TABLE = new HtmlTable<>("Доступная база", List.of(
+            ColumnDescriptor.text("Бренд", AvailableClientBaseQueryResult::getBrand),
+            ColumnDescriptor.amount("Всего клиентов", AvailableClientBaseQueryResult::getTotalClientsCount),
+            ColumnDescriptor.amount("Доступные клиенты", AvailableClientBaseQueryResult::getAvailableClientCount),
+            ColumnDescriptor.amount("Доступен EMAIL", AvailableClientBaseQueryResult::getEmailCount),
+            ColumnDescriptor.amount("Доступен SMS", AvailableClientBaseQueryResult::getSmsCount),
+            ColumnDescriptor.amount("Доступен EMAIL или SMS", AvailableClientBaseQueryResult::getEmailAndSmsCount),
+            ColumnDescriptor.text("Доля EMAIL от доступных", AvailableClientBaseQueryResult::getEmailPercentage),
+            ColumnDescriptor.text("Доля SMS от доступных", AvailableClientBaseQueryResult::getSmsPercentage),
+            ColumnDescriptor.text("Доля EMAIL или SMS от доступных", AvailableClientBaseQueryResult::getEmailAndSmsPercentage)
+    ));
+
+    static final HtmlTable<CommunicationCoverageQueryResult> COMMUNICATION_COVERAGE_TABLE = new HtmlTable<>("Покрытие коммуникациями", List.of(
+            ColumnDescriptor.text("Бренд", CommunicationCoverageQueryResult::getBrand),
+            ColumnDescriptor.text("Тип коммуникации", CommunicationCoverageQueryResult::getType),
+            ColumnDescriptor.text("Канал коммуникации", CommunicationCoverageQueryResult::getChannel),
+            ColumnDescriptor.amount("Количество клиентов c коммуникацией", CommunicationCoverageQueryResult::getCommCount),
+            ColumnDescriptor.amount("Количество уникальных клиентов c коммуникацией", CommunicationCoverageQueryResult::getUniqueClientCount),
+            ColumnDescriptor.decimal("Количество коммуникаций на клиента", CommunicationCoverageQueryResult::getCommunicationsPerClient),
+            ColumnDescriptor.text("Покрытие", CommunicationCoverageQueryResult::getCoverage)
+    ));
+
+    static final HtmlTable<OfferCoverageQueryResult> OFFER_COVERAGE_TABLE = new HtmlTable<>("Покрытие офферами", List.of(
+            ColumnDescriptor.text("Бренд", OfferCoverageQueryResult::getBrand),
+            ColumnDescriptor.amount("Доступная база", OfferCoverageQueryResult::getAvailableBase),
+            ColumnDescriptor.amount("Количество офферов", OfferCoverageQueryResult::getOfferCount),
+            ColumnDescriptor.amount("Количество уникальных клиентов с оффером", OfferCoverageQueryResult::getUniqueClientsWithOffer),
+            ColumnDescriptor.amount("Количество офферов с коммуникацией", OfferCoverageQueryResult::getOffersWithComm),
+            ColumnDescriptor.amount("Количество уникальных клиентов с оффером и коммуникацией", OfferCoverageQueryResult::getUniqueClientsWithOfferAndComm),
+            ColumnDescriptor.text("Покрытие по офферам", OfferCoverageQueryResult::getOfferCoverage),
+            ColumnDescriptor.text("Покрытие по офферам с коммуникацией", OfferCoverageQueryResult::getOfferWithCommCoverage)
+    ));
+
+    static final HtmlTable<CascadeCountQueryResult> CASCADE_COUNT_TABLE = new HtmlTable<>("Количество отправленных СМС/ПУШ", List.of(
+            ColumnDescriptor.text("Метрика", CascadeCountQueryResult::getMessageDesc),
+            ColumnDescriptor.amount("ГОРЗДРАВ", CascadeCountQueryResult::getGzCount),
+            ColumnDescriptor.amount("366", CascadeCountQueryResult::getAptekaCount),
+            ColumnDescriptor.amount("Всего", CascadeCountQueryResult::getTotal)
+    ));
+
+    public HtmlBody render(CoverageData data) {
+        return render(data, null);
+    }
+
+    public static String title(CoverageSection section) {
+        return switch (section) {
+            case AVAILABLE_CLIENT_BASE -> AVAILABLE_CLIENT_BASE_TABLE.getTitle();
+            case COMMUNICATION_COVERAGE -> COMMUNICATION_COVERAGE_TABLE.getTitle();
+            case OFFER_COVERAGE -> OFFER_COVERAGE_TABLE.getTitle();
+            case CASCADE_COUNT -> CASCADE_COUNT_TABLE.getTitle();
+        };
+    }
+
+    public HtmlBody render(CoverageData data, TrendColumns trends) {
+        return render(data, trends, List.of());
+    }
+
+    /**
+     * {@code notices} are shown as paragraphs after the tables, e.g. about attachments that could not be sent.
+     */
+    public HtmlBody render(CoverageData data, TrendColumns trends, List<String> notices) {
+        HtmlTable<AvailableClientBaseQueryResult> availableClientBaseTable = AVAILABLE_CLIENT_BASE_TABLE;
+        HtmlTable<CommunicationCoverageQueryResult> communicationCoverageTable = COMMUNICATION_COVERAGE_TABLE;
+        HtmlTable<OfferCoverageQueryResult> offerCoverageTable = OFFER_COVERAGE_TABLE;
+        HtmlTable<CascadeCountQueryResult> cascadeCountTable = CASCADE_COUNT_TABLE;
+        if (trends != null) {
+            availableClientBaseTable = availableClientBaseTable.withColumns(trends.columns(SectionLayout.AVAILABLE_CLIENT_BASE));
+            communicationCoverageTable = communicationCoverageTable.withColumns(trends.columns(SectionLayout.COMMUNICATION_COVERAGE));
+            offerCoverageTable = offerCoverageTable.withColumns(trends.columns(SectionLayout.OFFER_COVERAGE));
+            cascadeCountTable = cascadeCountTable.withColumns(trends.columns(SectionLayout.CASCADE_COUNT));
+        }
+
+        HtmlBody body = new HtmlBody(HEADER.length + FOOTER.length
+                + availableClientBaseTable.estimateSize(size(data.getAvailableClientBaseData()))
+                + communicationCoverageTable.estimateSize(size(data.getCommunicationCoverageData()))
+                + offerCoverageTable.estimateSize(size(data.getOfferCoverageData()))
+                + cascadeCountTable.estimateSize(size(data.getCascadeCountData()))
+                + notices.stream().mapToInt(notice -> notice.length() * 2 + 7).sum());
+        body.write(HEADER);
+        availableClientBaseTable.render(body, data.getAvailableClientBaseData(),
+                emptyMessage(data, CoverageSection.AVAILABLE_CLIENT_BASE));
+        communicationCoverageTable.render(body, data.getCommunicationCoverageData(),
+                emptyMessage(data, CoverageSection.COMMUNICATION_COVERAGE));
+        offerCoverageTable.render(body, data.getOfferCoverageData(),
+                emptyMessage(data, CoverageSection.OFFER_COVERAGE));
+        cascadeCountTable.render(body, data.getCascadeCountData(),
+                emptyMessage(data, CoverageSection.CASCADE_COUNT));
+        for (String notice : notices) {
+            body.writeRaw("<p>").writeText(notice).writeRaw("</p>");
+        }
+        body.write(FOOTER);
+        return body;
+    }
+
+    private static String emptyMessage(CoverageData data, CoverageSection section) {
+        return data.isTimedOut(section) ? TIMED_OUT : null;
+    }
+
+    private static int size(List<?> rows) {
+        return rows == null ? 0 : rows.size();
+    }
+}
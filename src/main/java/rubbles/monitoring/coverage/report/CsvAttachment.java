@@ -0,0 +1,49 @@
+package rubbles.monitoring.coverage.report;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A gzip-compressed CSV file written by {@link CsvAttachmentWriter}; as a mail part it is read from the file
+ * every time the message is sent.
+ */
+@Getter
+@AllArgsConstructor
+public class CsvAttachment implements DataSource {
+    public static final String CONTENT_TYPE = "application/gzip";
+
+    private final Path path;
+    private final long rows;
+    private final long bytes;
+    /**
+     * Larger than an attachment may be; the file is only offered for download.
+     */
+    private final boolean oversized;
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("CsvAttachment is read only");
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return path.getFileName().toString();
+    }
+}
@@ -0,0 +1,148 @@
+package rubbles.monitoring.coverage.report;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes rows straight through gzip into a file, so that only the compressor's buffers are held in memory. The
+ * header is taken from the columns of the first row. The CSV starts with a byte order mark, which Excel needs to
+ * read UTF-8.
+ * <p>
+ * {@link #finish} closes the file and returns it as an attachment; {@link #close} without {@code finish} deletes it.
+ * <p>
+ * {@code maxBytes} caps the {@link #encodedSize encoded size} of the file, which is what the relay receives.
+ */
+@Slf4j
+public class CsvAttachmentWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Content-Type, Content-Transfer-Encoding and Content-Disposition with the file name, and the boundary
+    private static final int PART_HEADER_BYTES = 512;
+
+    private final Path path;
+    private final char delimiter;
+    private final long maxBytes;
+    private final CountingOutputStream file;
+    private final Writer writer;
+    private String[] columns;
+    private long rows;
+    private boolean finished;
+
+    public CsvAttachmentWriter(Path path, char delimiter, long maxBytes) throws IOException {
+        this.path = path;
+        this.delimiter = delimiter;
+        this.maxBytes = maxBytes;
+        this.file = new CountingOutputStream(Files.newOutputStream(path));
+        this.writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(file, BUFFER_SIZE),
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write('\uFEFF');
+    }
+
+    public void write(Map<String, Object> row) throws IOException {
+        if (columns == null) {
+            columns = row.keySet().toArray(new String[0]);
+            for (int i = 0; i < columns.length; i++) {
+                writeValue(i, columns[i]);
+            }
+            writer.write("\r\n");
+        }
+        for (int i = 0; i < columns.length; i++) {
+            writeValue(i, row.get(columns[i]));
+        }
+        writer.write("\r\n");
+        rows++;
+    }
+
+    private void writeValue(int column, Object value) throws IOException {
+        if (column > 0) {
+            writer.write(delimiter);
+        }
+        if (value == null) {
+            return;
+        }
+        String text = value instanceof BigDecimal decimal ? decimal.toPlainString() : value.toString();
+        if (text.indexOf(delimiter) < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * Whether the compressed bytes written so far, which trail the rows by the compressor's buffer, exceed the cap
+     * once encoded.
+     */
+    public boolean isOversized() {
+        return maxBytes > 0 && encodedSize(file.count) > maxBytes;
+    }
+
+    /**
+     * Size of a file of {@code bytes} as a mail part: base64 in lines of 76 characters plus CRLF, and the part headers.
+     */
+    public static long encodedSize(long bytes) {
+        long base64 = (bytes + 2) / 3 * 4;
+        return base64 + (base64 + 75) / 76 * 2 + PART_HEADER_BYTES;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public CsvAttachment finish() throws IOException {
+        finished = true;
+        writer.close();
+        long bytes = Files.size(path);
+        return new CsvAttachment(path, rows, bytes, maxBytes > 0 && encodedSize(bytes) > maxBytes);
+    }
+
+    @Override
+    public void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.debug("error closing {}: {}", path, e.getMessage());
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("error deleting {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
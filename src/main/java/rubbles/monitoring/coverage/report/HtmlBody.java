@@ -0,0 +1,172 @@
+package rubbles.monitoring.coverage.report;
+
+import javax.activation.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class HtmlBody implements DataSource {
+    public static final String CONTENT_TYPE = "text/html; charset=utf-8";
+
+    private static final byte[] GROUPING_SEPARATOR = String.valueOf(
+            DecimalFormatSymbols.getInstance(new Locale("ru", "RU")).getGroupingSeparator())
+            .getBytes(StandardCharsets.UTF_8);
+    private static final int MAX_AMOUNT_BYTES = 20 + 6 * GROUPING_SEPARATOR.length;
+
+    private byte[] buf;
+    private int count;
+
+    public HtmlBody(int initialCapacity) {
+        this.buf = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    public static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String escape(String input) {
+        if (input == null) {
+            return "";
+        }
+        return input.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;")
+                .replace("'", "&#39;");
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+        }
+    }
+
+    public HtmlBody write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+        return this;
+    }
+
+    public HtmlBody writeRaw(CharSequence value) {
+        return writeUtf8(value, false);
+    }
+
+    public HtmlBody writeText(CharSequence value) {
+        return value == null ? this : writeUtf8(value, true);
+    }
+
+    public HtmlBody writeAmount(Long amount) {
+        if (amount == null) {
+            return writeRaw("N/A");
+        }
+        ensureCapacity(MAX_AMOUNT_BYTES);
+        long value = amount;
+        if (value < 0) {
+            buf[count++] = '-';
+        } else {
+            // digits are produced from a non-positive value so that Long.MIN_VALUE needs no special case
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int length = digits + (digits - 1) / 3 * GROUPING_SEPARATOR.length;
+        int pos = count + length;
+        for (int digit = 0; digit < digits; digit++) {
+            if (digit > 0 && digit % 3 == 0) {
+                pos -= GROUPING_SEPARATOR.length;
+                System.arraycopy(GROUPING_SEPARATOR, 0, buf, pos, GROUPING_SEPARATOR.length);
+            }
+            buf[--pos] = (byte) ('0' - value % 10);
+            value /= 10;
+        }
+        count += length;
+        return this;
+    }
+
+    private HtmlBody writeUtf8(CharSequence value, boolean escape) {
+        int length = value.length();
+        ensureCapacity(length * 3);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (escape) {
+                    switch (c) {
+                        case '&' -> writeEntity("&amp;", length - i);
+                        case '<' -> writeEntity("&lt;", length - i);
+                        case '>' -> writeEntity("&gt;", length - i);
+                        case '"' -> writeEntity("&quot;", length - i);
+                        case '\'' -> writeEntity("&#39;", length - i);
+                        default -> buf[count++] = (byte) c;
+                    }
+                } else {
+                    buf[count++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buf[count++] = (byte) (0xC0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[count++] = '?';
+            } else {
+                buf[count++] = (byte) (0xE0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    private void writeEntity(String entity, int remainingChars) {
+        // keeps the up-front reservation valid for the rest of the value
+        ensureCapacity(entity.length() + remainingChars * 3);
+        for (int i = 0; i < entity.length(); i++) {
+            buf[count++] = (byte) entity.charAt(i);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("HtmlBody is read only");
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return "report.html";
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, StandardCharsets.UTF_8);
+    }
+}
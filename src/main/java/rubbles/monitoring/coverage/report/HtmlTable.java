@@ -0,0 +1,78 @@
+package rubbles.monitoring.coverage.report;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HtmlTable<T> {
+    private static final byte[] ROW_OPEN = HtmlBody.utf8("<tr>");
+    private static final byte[] ROW_CLOSE = HtmlBody.utf8("</tr>");
+    private static final byte[] TABLE_CLOSE = HtmlBody.utf8("</table>");
+    private static final int ESTIMATED_CELL_SIZE = 40;
+    private static final String NO_DATA = "Нет данных для отображения";
+
+    private final String title;
+    private final List<ColumnDescriptor<T>> columns;
+    private final byte[] tableOpen;
+    private final byte[] headerRow;
+    private final byte[] emptyRow;
+
+    public HtmlTable(String title, List<ColumnDescriptor<T>> columns) {
+        this.title = title;
+        this.columns = List.copyOf(columns);
+        int displayedColumnCount = columns.size();
+        this.tableOpen = HtmlBody.utf8("<table border='1'><tr><th colspan='" + displayedColumnCount
+                + "' class=\"main\">" + HtmlBody.escape(title) + "</th></tr>");
+        StringBuilder header = new StringBuilder("<tr>");
+        for (ColumnDescriptor<T> column : columns) {
+            header.append("<th>").append(HtmlBody.escape(column.getHeader())).append("</th>");
+        }
+        this.headerRow = HtmlBody.utf8(header.append("</tr>").toString());
+        this.emptyRow = messageRow(NO_DATA);
+    }
+
+    private byte[] messageRow(String message) {
+        return HtmlBody.utf8("<tr><td colspan='" + columns.size() + "'>" + HtmlBody.escape(message) + "</td></tr>");
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public HtmlTable<T> withColumns(List<ColumnDescriptor<T>> extraColumns) {
+        if (extraColumns.isEmpty()) {
+            return this;
+        }
+        List<ColumnDescriptor<T>> allColumns = new ArrayList<>(columns);
+        allColumns.addAll(extraColumns);
+        return new HtmlTable<>(title, allColumns);
+    }
+
+    public int estimateSize(int rowCount) {
+        return tableOpen.length + headerRow.length + TABLE_CLOSE.length
+                + rowCount * (ROW_OPEN.length + ROW_CLOSE.length + columns.size() * ESTIMATED_CELL_SIZE);
+    }
+
+    public void render(HtmlBody out, List<T> rows) {
+        render(out, rows, null);
+    }
+
+    /**
+     * Like {@link #render(HtmlBody, List)}, with {@code emptyMessage} instead of the usual text when there are no rows.
+     */
+    public void render(HtmlBody out, List<T> rows, String emptyMessage) {
+        out.write(tableOpen);
+        if (rows == null || rows.isEmpty()) {
+            out.write(emptyMessage == null ? emptyRow : messageRow(emptyMessage));
+        } else {
+            out.write(headerRow);
+            for (T row : rows) {
+                out.write(ROW_OPEN);
+                for (ColumnDescriptor<T> column : columns) {
+                    column.writeCell(out, row);
+                }
+                out.write(ROW_CLOSE);
+            }
+        }
+        out.write(TABLE_CLOSE);
+    }
+}
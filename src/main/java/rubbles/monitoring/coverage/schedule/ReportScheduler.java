@@ -0,0 +1,110 @@
+package rubbles.monitoring.coverage.schedule;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the {@link ScheduledReport}s in one long-lived context, so that the pool, caches and rendering templates
+ * survive between runs. A report may have several cron expressions separated by {@code ;}; when one fires while
+ * the report is still running, that turn is skipped instead of overlapping the run.
+ */
+@Service
+@Slf4j
+public class ReportScheduler {
+
+    @Autowired
+    private List<ScheduledReport> reports;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${schedule.pool-size:2}")
+    private int poolSize;
+
+    @Value("${schedule.zone:}")
+    private String zone;
+
+    @Value("${schedule.shutdown-timeout-s:600}")
+    private int shutdownTimeoutS;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(Math.max(1, poolSize));
+        taskScheduler.setThreadNamePrefix("report-scheduler-");
+        taskScheduler.setWaitForTasksToCompleteOnShutdown(true);
+        taskScheduler.setAwaitTerminationSeconds(shutdownTimeoutS);
+        taskScheduler.setErrorHandler(e -> log.error("Scheduled report failed: {}", e.getMessage(), e));
+        taskScheduler.initialize();
+        // on shutdown a running report may finish, but no further turns start
+        taskScheduler.getScheduledThreadPoolExecutor().setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        ZoneId zoneId = zone.isBlank() ? ZoneId.systemDefault() : ZoneId.of(zone);
+        int scheduled = 0;
+        for (ScheduledReport report : reports) {
+            String cron = environment.getProperty("schedule.reports." + report.getName() + ".cron", "");
+            if (cron.isBlank()) {
+                log.warn("No cron expression for report \"{}\", it won't be scheduled.", report.getName());
+                continue;
+            }
+            // one lock per report, shared by all of its cron expressions
+            ReentrantLock running = new ReentrantLock();
+            for (String expression : cron.split(";")) {
+                taskScheduler.schedule(() -> runExclusive(report, running), new CronTrigger(expression.trim(), zoneId));
+                log.info("Report \"{}\" scheduled with cron \"{}\" ({})", report.getName(), expression.trim(), zoneId);
+            }
+            scheduled++;
+        }
+        if (scheduled == 0) {
+            log.warn("No reports are scheduled, the daemon will stay idle.");
+        }
+        scheduler = taskScheduler;
+    }
+
+    private void runExclusive(ScheduledReport report, ReentrantLock running) {
+        if (!running.tryLock()) {
+            log.warn("Previous run of report \"{}\" is still in progress, skipping this one.", report.getName());
+            meterRegistry.counter("report.run.skipped", "report", report.getName()).increment();
+            return;
+        }
+        try {
+            log.info("Starting scheduled run of report \"{}\"...", report.getName());
+            Timer.builder("report.run")
+                    .description("Duration of scheduled report runs")
+                    .tag("report", report.getName())
+                    .register(meterRegistry)
+                    .record(report::run);
+            log.info("Finished scheduled run of report \"{}\".", report.getName());
+        } finally {
+            running.unlock();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (scheduler != null) {
+            log.info("Stopping report scheduler...");
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package rubbles.monitoring.coverage.schedule;
+
+/**
+ * A report that {@code -action daemon} runs on the cron expression configured under
+ * {@code schedule.reports.<name>.cron}.
+ */
+public interface ScheduledReport {
+
+    String getName();
+
+    void run();
+}
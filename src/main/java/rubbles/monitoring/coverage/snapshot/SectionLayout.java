@@ -0,0 +1,57 @@
+package rubbles.monitoring.coverage.snapshot;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import rubbles.monitoring.coverage.model.AvailableClientBaseQueryResult;
+import rubbles.monitoring.coverage.model.CascadeCountQueryResult;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+import rubbles.monitoring.coverage.model.CoverageSection;
+import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
+
+import java.util.List;
+import java.util.function.Function;
+
+@Getter
+@AllArgsConstructor
+public class SectionLayout<T> {
+    public static final SectionLayout<AvailableClientBaseQueryResult> AVAILABLE_CLIENT_BASE = new SectionLayout<>(
+            CoverageSection.AVAILABLE_CLIENT_BASE,
+            AvailableClientBaseQueryResult::getBrand,
+            List.of(AvailableClientBaseQueryResult::getTotalClientsCount,
+                    AvailableClientBaseQueryResult::getAvailableClientCount,
+                    AvailableClientBaseQueryResult::getEmailCount,
+                    AvailableClientBaseQueryResult::getSmsCount,
+                    AvailableClientBaseQueryResult::getEmailAndSmsCount),
+            1);
+
+    public static final SectionLayout<CommunicationCoverageQueryResult> COMMUNICATION_COVERAGE = new SectionLayout<>(
+            CoverageSection.COMMUNICATION_COVERAGE,
+            row -> row.getBrand() + '|' + row.getType() + '|' + row.getChannel(),
+            List.of(CommunicationCoverageQueryResult::getCommCount,
+                    CommunicationCoverageQueryResult::getUniqueClientCount),
+            1);
+
+    public static final SectionLayout<OfferCoverageQueryResult> OFFER_COVERAGE = new SectionLayout<>(
+            CoverageSection.OFFER_COVERAGE,
+            OfferCoverageQueryResult::getBrand,
+            List.of(OfferCoverageQueryResult::getAvailableBase,
+                    OfferCoverageQueryResult::getOfferCount,
+                    OfferCoverageQueryResult::getUniqueClientsWithOffer,
+                    OfferCoverageQueryResult::getOffersWithComm,
+                    OfferCoverageQueryResult::getUniqueClientsWithOfferAndComm),
+            2);
+
+    public static final SectionLayout<CascadeCountQueryResult> CASCADE_COUNT = new SectionLayout<>(
+            CoverageSection.CASCADE_COUNT,
+            CascadeCountQueryResult::getMessageDesc,
+            List.of(CascadeCountQueryResult::getGzCount,
+                    CascadeCountQueryResult::getAptekaCount,
+                    CascadeCountQueryResult::getTotal),
+            2);
+
+    private final CoverageSection section;
+    private final Function<T, String> key;
+    private final List<Function<T, Long>> values;
+    // index in values of the metric shown in the delta and trend columns
+    private final int trendValue;
+}
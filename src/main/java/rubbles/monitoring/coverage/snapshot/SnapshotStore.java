@@ -0,0 +1,216 @@
+package rubbles.monitoring.coverage.snapshot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import rubbles.monitoring.coverage.model.CoverageData;
+import rubbles.monitoring.coverage.model.CoverageSection;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Append-only, memory-mapped store of the per-row numbers of every run.
+ * <p>
+ * File layout: a header ({@code magic:int, version:int, committed:long}) followed by records
+ * ({@code length:int, section:byte, period:int, runDate:long, keyLength:short, key:utf8, valueCount:byte, values:long[]}).
+ * Only bytes up to {@code committed} are trusted, so a record torn by a crash is ignored on the next open.
+ * The index is rebuilt on open and keeps the latest record per section, row key and run date.
+ * <p>
+ * The report figures are month to date, so a run is compared with the run on the same day of an earlier month,
+ * or the last run before that day in that month, and never with a whole month.
+ */
+@Service
+@Slf4j
+public class SnapshotStore {
+    private static final int MAGIC = 0x434F5653;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COMMITTED_OFFSET = 8;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final long NULL_VALUE = Long.MIN_VALUE;
+
+    @Value("${snapshot.enabled:false}")
+    private boolean enabled;
+
+    @Value("${snapshot.path:}")
+    private String path;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int committed;
+    private final Map<String, Map<Long, Integer>> index = new HashMap<>();
+
+    @PostConstruct
+    void init() {
+        if (enabled && path.isBlank()) {
+            throw new IllegalStateException("snapshot.enabled requires snapshot.path");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void append(LocalDate runDate, CoverageData data) throws IOException {
+        open();
+        int period = runDate.getYear() * 12 + runDate.getMonthValue() - 1;
+        int appended = append(SectionLayout.AVAILABLE_CLIENT_BASE, data.getAvailableClientBaseData(), period, runDate)
+                + append(SectionLayout.COMMUNICATION_COVERAGE, data.getCommunicationCoverageData(), period, runDate)
+                + append(SectionLayout.OFFER_COVERAGE, data.getOfferCoverageData(), period, runDate)
+                + append(SectionLayout.CASCADE_COUNT, data.getCascadeCountData(), period, runDate);
+        buffer.putLong(COMMITTED_OFFSET, committed);
+        buffer.force();
+        log.info("Saved {} snapshot rows for {} to {}", appended, runDate, path);
+    }
+
+    /**
+     * Values of one metric as of the same day of each of the {@code periods} months preceding {@code runDate}, most
+     * recent first; {@code null} where that month has no run on or before that day.
+     */
+    public synchronized Long[] history(CoverageSection section, String key, int valueIndex, LocalDate runDate,
+                                       int periods) throws IOException {
+        open();
+        Long[] result = new Long[periods];
+        Map<Long, Integer> offsets = index.get(indexKey(section, key));
+        if (offsets == null) {
+            return result;
+        }
+        for (int i = 0; i < periods; i++) {
+            Integer offset = sameDayOffset(offsets, runDate.minusMonths(i + 1));
+            if (offset != null) {
+                result[i] = readValue(offset, valueIndex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The run on {@code day}, or the last one before it in the same month; at most a month of lookups.
+     */
+    private static Integer sameDayOffset(Map<Long, Integer> offsets, LocalDate day) {
+        for (LocalDate date = day; date.getMonth() == day.getMonth(); date = date.minusDays(1)) {
+            Integer offset = offsets.get(date.toEpochDay());
+            if (offset != null) {
+                return offset;
+            }
+        }
+        return null;
+    }
+
+    private <T> int append(SectionLayout<T> layout, List<T> rows, int period, LocalDate runDate) throws IOException {
+        if (rows == null || rows.isEmpty()) {
+            return 0;
+        }
+        List<Function<T, Long>> values = layout.getValues();
+        for (T row : rows) {
+            String key = String.valueOf(layout.getKey().apply(row));
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int length = 4 + 1 + 4 + 8 + 2 + keyBytes.length + 1 + values.size() * 8;
+            ensureCapacity(committed + length);
+            int offset = committed;
+            buffer.position(offset);
+            buffer.putInt(length)
+                    .put((byte) layout.getSection().ordinal())
+                    .putInt(period)
+                    .putLong(runDate.toEpochDay())
+                    .putShort((short) keyBytes.length)
+                    .put(keyBytes)
+                    .put((byte) values.size());
+            for (Function<T, Long> value : values) {
+                Long number = value.apply(row);
+                buffer.putLong(number == null ? NULL_VALUE : number);
+            }
+            committed += length;
+            index.computeIfAbsent(indexKey(layout.getSection(), key), k -> new HashMap<>())
+                    .put(runDate.toEpochDay(), offset);
+        }
+        return rows.size();
+    }
+
+    private Long readValue(int offset, int valueIndex) {
+        int keyLength = buffer.getShort(offset + 4 + 1 + 4 + 8) & 0xFFFF;
+        int valuesOffset = offset + 4 + 1 + 4 + 8 + 2 + keyLength;
+        int valueCount = buffer.get(valuesOffset);
+        if (valueIndex >= valueCount) {
+            return null;
+        }
+        long value = buffer.getLong(valuesOffset + 1 + valueIndex * 8);
+        return value == NULL_VALUE ? null : value;
+    }
+
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        Path file = Path.of(path);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_SIZE));
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            committed = HEADER_SIZE;
+            buffer.putLong(COMMITTED_OFFSET, committed);
+            return;
+        }
+        committed = (int) buffer.getLong(COMMITTED_OFFSET);
+        int records = 0;
+        for (int offset = HEADER_SIZE; offset < committed; offset += buffer.getInt(offset)) {
+            CoverageSection section = CoverageSection.values()[buffer.get(offset + 4)];
+            long runDate = buffer.getLong(offset + 4 + 1 + 4);
+            int keyLength = buffer.getShort(offset + 4 + 1 + 4 + 8) & 0xFFFF;
+            byte[] key = new byte[keyLength];
+            buffer.get(offset + 4 + 1 + 4 + 8 + 2, key);
+            index.computeIfAbsent(indexKey(section, new String(key, StandardCharsets.UTF_8)), k -> new HashMap<>())
+                    .put(runDate, offset);
+            records++;
+        }
+        log.info("Opened snapshot store {} with {} records", path, records);
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        long size = buffer.capacity();
+        while (size < required) {
+            size <<= 1;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot store is full: " + path);
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+            buffer = null;
+            index.clear();
+        }
+    }
+
+    private static String indexKey(CoverageSection section, String key) {
+        return section.ordinal() + "|" + key;
+    }
+}
@@ -0,0 +1,55 @@
+package rubbles.monitoring.coverage.snapshot;
+
+import rubbles.monitoring.coverage.report.ColumnDescriptor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.List;
+
+public class TrendColumns {
+    private final SnapshotStore store;
+    private final LocalDate runDate;
+    private final int periods;
+
+    public TrendColumns(SnapshotStore store, LocalDate runDate, int periods) {
+        this.store = store;
+        this.runDate = runDate;
+        this.periods = Math.max(1, periods);
+    }
+
+    public <T> List<ColumnDescriptor<T>> columns(SectionLayout<T> layout) {
+        return List.of(
+                ColumnDescriptor.delta("Изменение к тому же дню прошлого месяца", row -> delta(layout, row)),
+                ColumnDescriptor.text("Тренд за " + periods + " мес.", row -> trend(layout, row))
+        );
+    }
+
+    private <T> Long delta(SectionLayout<T> layout, T row) {
+        Long current = layout.getValues().get(layout.getTrendValue()).apply(row);
+        Long previous = history(layout, row)[0];
+        return current == null || previous == null ? null : current - previous;
+    }
+
+    private <T> String trend(SectionLayout<T> layout, T row) {
+        Long[] history = history(layout, row);
+        StringBuilder trend = new StringBuilder(periods);
+        Long newer = layout.getValues().get(layout.getTrendValue()).apply(row);
+        // history is most recent first, the trend reads oldest to newest
+        for (int i = 0; i < periods; i++) {
+            Long older = history[i];
+            trend.insert(0, older == null || newer == null ? "·" : newer > older ? "▲" : newer < older ? "▼" : "=");
+            newer = older;
+        }
+        return trend.toString();
+    }
+
+    private <T> Long[] history(SectionLayout<T> layout, T row) {
+        try {
+            return store.history(layout.getSection(), String.valueOf(layout.getKey().apply(row)),
+                    layout.getTrendValue(), runDate, periods);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package rubbles.monitoring.coverage.adapter;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.user.UserManager;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import rubbles.monitoring.coverage.adapter.DispatchSummary.RecipientResult;
+import rubbles.monitoring.coverage.report.HtmlBody;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+class EmailDispatcherTest {
+    private static final String SENDER = "coverage@localhost";
+    private static final String PASSWORD = "secret";
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP)
+            .withConfiguration(GreenMailConfiguration.aConfig().withUser(SENDER, SENDER, PASSWORD))
+            .withPerMethodLifecycle(true);
+
+    @Test
+    void deliversReportToEveryRecipient() throws Exception {
+        EmailDispatcher dispatcher = dispatcher(emailService(PASSWORD), 3, 0, 1);
+
+        DispatchSummary summary = dispatcher.dispatch(
+                List.of("a@localhost", "b@localhost", "c@localhost"), body("<p>coverage</p>"));
+
+        assertThat(summary.getDelivered()).extracting(RecipientResult::getEmail)
+                .containsExactlyInAnyOrder("a@localhost", "b@localhost", "c@localhost");
+        assertThat(summary.getFailed()).isEmpty();
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).hasSize(3);
+        assertThat(received[0].getSubject()).startsWith("Отчет по покрытию за ");
+        assertThat(GreenMailUtil.getBody(received[0])).isNotBlank();
+    }
+
+    @Test
+    void reportsInvalidAddressWithoutSending() throws Exception {
+        EmailDispatcher dispatcher = dispatcher(emailService(PASSWORD), 3, 0, 1);
+
+        DispatchSummary summary = dispatcher.dispatch(List.of("not an address", "a@localhost"), body("<p/>"));
+
+        assertThat(summary.getDelivered()).extracting(RecipientResult::getEmail).containsExactly("a@localhost");
+        assertThat(summary.getFailed()).extracting(RecipientResult::getEmail).containsExactly("not an address");
+        assertThat(summary.getFailed().get(0).getAttempts()).isZero();
+    }
+
+    @Test
+    void retriesTransientFailure() throws Exception {
+        // the relay answers the first DATA for a@localhost with 451
+        failDeliveries(Map.of("a@localhost", 1));
+        EmailDispatcher dispatcher = dispatcher(emailService(PASSWORD), 3, 0, 1);
+
+        DispatchSummary summary = dispatcher.dispatch(List.of("a@localhost", "b@localhost"), body("<p/>"));
+
+        assertThat(summary.getFailed()).isEmpty();
+        assertThat(attempts(summary, "a@localhost")).isEqualTo(2);
+        assertThat(attempts(summary, "b@localhost")).isEqualTo(1);
+        assertThat(greenMail.getReceivedMessages()).hasSize(2);
+    }
+
+    @Test
+    void givesUpOnTransientFailureAfterMaxAttempts() throws Exception {
+        failDeliveries(Map.of("a@localhost", Integer.MAX_VALUE));
+        EmailDispatcher dispatcher = dispatcher(emailService(PASSWORD), 3, 0, 1);
+
+        DispatchSummary summary = dispatcher.dispatch(List.of("a@localhost"), body("<p/>"));
+
+        assertThat(summary.getDelivered()).isEmpty();
+        assertThat(summary.getFailed()).singleElement().satisfies(result -> {
+            assertThat(result.getAttempts()).isEqualTo(3);
+            assertThat(result.getError()).contains("451");
+        });
+    }
+
+    @Test
+    void doesNotRetryPermanentFailure() throws Exception {
+        // a wrong password is answered with 535
+        EmailDispatcher dispatcher = dispatcher(emailService("wrong"), 3, 0, 1);
+
+        DispatchSummary summary = dispatcher.dispatch(List.of("a@localhost", "b@localhost"), body("<p/>"));
+
+        assertThat(summary.getDelivered()).isEmpty();
+        assertThat(summary.getFailed()).hasSize(2).allSatisfy(result -> assertThat(result.getAttempts()).isEqualTo(1));
+        assertThat(greenMail.getReceivedMessages()).isEmpty();
+    }
+
+    @Test
+    void keepsSendRateUnderLimit() throws Exception {
+        EmailDispatcher dispatcher = dispatcher(emailService(PASSWORD), 3, 5, 1);
+        List<String> emails = List.of("a@localhost", "b@localhost", "c@localhost", "d@localhost");
+
+        long start = System.nanoTime();
+        DispatchSummary summary = dispatcher.dispatch(emails, body("<p/>"));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(summary.getDelivered()).hasSize(4);
+        // one message goes out right away, the other three wait for a token at 5 per second
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(550);
+    }
+
+    @Test
+    void reportsBatchWhoseDeliveryThrows() throws Exception {
+        EmailService emailService = spy(emailService(PASSWORD));
+        doThrow(new SendFailedException("rejected") {
+            @Override
+            public Address[] getValidSentAddresses() {
+                throw new IllegalStateException("broken transport state");
+            }
+        }).doCallRealMethod().when(emailService).send(any(), any(), any());
+        EmailDispatcher dispatcher = dispatcher(emailService, 3, 0, 1);
+        ReflectionTestUtils.setField(dispatcher, "parallelism", 1);
+
+        DispatchSummary summary = dispatcher.dispatch(List.of("a@localhost", "b@localhost"), body("<p/>"));
+
+        assertThat(summary.getFailed()).singleElement().satisfies(result -> {
+            assertThat(result.getEmail()).isEqualTo("a@localhost");
+            assertThat(result.getAttempts()).isEqualTo(1);
+            assertThat(result.getError()).contains("broken transport state");
+        });
+        // the worker goes on with the next batch
+        assertThat(summary.getDelivered()).extracting(RecipientResult::getEmail).containsExactly("b@localhost");
+        assertThat(greenMail.getReceivedMessages()).hasSize(1);
+    }
+
+    private static void failDeliveries(Map<String, Integer> failures) {
+        UserManager userManager = greenMail.getUserManager();
+        Map<String, AtomicInteger> remaining = new ConcurrentHashMap<>();
+        failures.forEach((email, count) -> remaining.put(email, new AtomicInteger(count)));
+        userManager.setMessageDeliveryHandler((message, address) -> {
+            AtomicInteger left = remaining.get(address.getEmail());
+            if (left != null && left.getAndDecrement() > 0) {
+                throw new MessagingException("mailbox of " + address.getEmail() + " is busy");
+            }
+            GreenMailUser user = userManager.getUserByEmail(address.getEmail());
+            return user != null ? user : userManager.createUser(address.getEmail(), address.getEmail(),
+                    address.getEmail());
+        });
+    }
+
+    private static int attempts(DispatchSummary summary, String email) {
+        return summary.getResults().stream()
+                .filter(result -> result.getEmail().equals(email))
+                .findFirst().orElseThrow()
+                .getAttempts();
+    }
+
+    private static HtmlBody body(String html) {
+        return new HtmlBody(64).write(HtmlBody.utf8(html));
+    }
+
+    private static EmailService emailService(String password) {
+        EmailService emailService = new EmailService();
+        ReflectionTestUtils.setField(emailService, "host", "localhost");
+        ReflectionTestUtils.setField(emailService, "port", String.valueOf(greenMail.getSmtp().getPort()));
+        ReflectionTestUtils.setField(emailService, "userName", SENDER);
+        ReflectionTestUtils.setField(emailService, "password", password);
+        ReflectionTestUtils.setField(emailService, "auth", true);
+        ReflectionTestUtils.setField(emailService, "startTls", false);
+        return emailService;
+    }
+
+    private static EmailDispatcher dispatcher(EmailService emailService, int maxAttempts, double ratePerSecond,
+                                              int burst) {
+        EmailDispatcher dispatcher = new EmailDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "emailService", emailService);
+        ReflectionTestUtils.setField(dispatcher, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(dispatcher, "parallelism", 2);
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", maxAttempts);
+        ReflectionTestUtils.setField(dispatcher, "initialBackoffMs", 10L);
+        ReflectionTestUtils.setField(dispatcher, "maxBackoffMs", 50L);
+        ReflectionTestUtils.setField(dispatcher, "ratePerSecond", ratePerSecond);
+        ReflectionTestUtils.setField(dispatcher, "burst", burst);
+        return dispatcher;
+    }
+}
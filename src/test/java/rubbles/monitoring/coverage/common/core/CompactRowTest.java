@@ -0,0 +1,241 @@
+package rubbles.monitoring.coverage.common.core;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks {@link CompactRow} against the {@link LinkedCaseInsensitiveMap} of {@code queryForList} it stands in for.
+ */
+class CompactRowTest {
+    private static final RowSchema SCHEMA = RowSchema.of(new String[]{"brand", "clientCount", "channel", "dayNum"},
+            new RowSchema.Kind[]{RowSchema.Kind.OBJECT, RowSchema.Kind.LONG, RowSchema.Kind.OBJECT,
+                    RowSchema.Kind.INT});
+
+    @Test
+    void readsLikeReferenceMap() {
+        CompactRow row = row("GZ", 10L, null, 3);
+        Map<String, Object> reference = reference("GZ", 10L, null, 3);
+
+        assertSameMap(row, reference);
+        assertThat(row.get("CLIENTCOUNT")).isEqualTo(10L);
+        assertThat(row.containsKey("Channel")).isTrue();
+        assertThat(row.get("channel")).isNull();
+        assertThat(row.get("missing")).isNull();
+        assertThat(row.containsKey("missing")).isFalse();
+    }
+
+    @Test
+    void putOfMismatchedTypeFallsBackToPlainMap() {
+        CompactRow row = row("GZ", 10L, "SMS", 3);
+        Map<String, Object> reference = reference("GZ", 10L, "SMS", 3);
+
+        assertThat(row.put("clientcount", "ten")).isEqualTo(reference.put("clientcount", "ten"));
+        assertThat(row.put("DAYNUM", 4L)).isEqualTo(reference.put("DAYNUM", 4L));
+
+        assertThat(row.get("CLIENTCOUNT")).isEqualTo("ten");
+        assertThat(row.get("dayNum")).isEqualTo(4L);
+        assertSameMap(row, reference);
+        row.put("extra", 1);
+        reference.put("extra", 1);
+        assertThat(row.get("EXTRA")).isEqualTo(1);
+        assertSameMap(row, reference);
+    }
+
+    @Test
+    void putOfMatchingTypeKeepsLayout() {
+        CompactRow row = row("GZ", 10L, "SMS", 3);
+        Map<String, Object> reference = reference("GZ", 10L, "SMS", 3);
+
+        assertThat(row.put("clientCount", null)).isEqualTo(reference.put("clientCount", null));
+        assertThat(row.put("dayNum", 7)).isEqualTo(reference.put("dayNum", 7));
+        assertThat(row.put("Other", "x")).isEqualTo(reference.put("Other", "x"));
+
+        assertThat(row.getColumn(1)).isNull();
+        assertThat(row.getSchema()).isSameAs(SCHEMA);
+        assertThat(row.getColumn(3)).isEqualTo(7);
+        assertSameMap(row, reference);
+    }
+
+    @Test
+    void removesSchemaColumnDuringIteration() {
+        CompactRow row = row("GZ", 10L, "SMS", 3);
+        row.put("extra", "x");
+        Map<String, Object> reference = reference("GZ", 10L, "SMS", 3);
+        reference.put("extra", "x");
+
+        List<String> seen = new ArrayList<>();
+        Iterator<Map.Entry<String, Object>> iterator = row.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            seen.add(entry.getKey());
+            if (entry.getKey().equals("clientCount") || entry.getKey().equals("extra")) {
+                iterator.remove();
+            }
+        }
+        reference.remove("clientCount");
+        reference.remove("extra");
+
+        assertThat(seen).containsExactly("brand", "clientCount", "channel", "dayNum", "extra");
+        assertSameMap(row, reference);
+        assertThatThrownBy(iterator::remove).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void setsValuesThroughEntries() {
+        CompactRow row = row("GZ", 10L, "SMS", 3);
+        Map<String, Object> reference = reference("GZ", 10L, "SMS", 3);
+
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            if (entry.getKey().equals("clientCount")) {
+                entry.setValue(11L);
+            }
+        }
+        reference.put("clientCount", 11L);
+
+        assertSameMap(row, reference);
+    }
+
+    @Test
+    void mergesThroughSchemaJoin() {
+        RowSchema overlaySchema = RowSchema.of(new String[]{"CHANNEL", "score"},
+                new RowSchema.Kind[]{RowSchema.Kind.OBJECT, RowSchema.Kind.LONG});
+        CompactRow base = row("GZ", 10L, "SMS", 3);
+        CompactRow overlay = new CompactRow(overlaySchema);
+        overlay.put("CHANNEL", "EMAIL");
+        overlay.put("score", 5L);
+
+        Map<String, Object> merged = CompactRow.merge(base, overlay);
+
+        assertThat(merged).isInstanceOf(CompactRow.class);
+        assertThat(((CompactRow) merged).getSchema())
+                .isSameAs(((CompactRow) CompactRow.merge(base, overlay)).getSchema());
+        assertThat(merged.get("channel")).isEqualTo("EMAIL");
+        assertThat(merged.get("Score")).isEqualTo(5L);
+        assertSameMap(merged, referenceMerge(base, overlay));
+        assertThat(merged.keySet()).containsExactly("brand", "clientCount", "dayNum", "CHANNEL", "score");
+        assertThat(base.get("channel")).isEqualTo("SMS");
+    }
+
+    @Test
+    void mergesSameCaseColumnsInPlace() {
+        RowSchema overlaySchema = RowSchema.of(new String[]{"channel", "dayNum"},
+                new RowSchema.Kind[]{RowSchema.Kind.OBJECT, RowSchema.Kind.OBJECT});
+        CompactRow base = row("GZ", 10L, "SMS", 3);
+        CompactRow overlay = new CompactRow(overlaySchema);
+        overlay.put("channel", "EMAIL");
+        overlay.put("dayNum", "third");
+
+        Map<String, Object> merged = CompactRow.merge(base, overlay);
+
+        assertThat(merged).isInstanceOf(CompactRow.class);
+        assertSameMap(merged, referenceMerge(base, overlay));
+        assertThat(merged.get("DAYNUM")).isEqualTo("third");
+    }
+
+    @Test
+    void mergesRowWithOverflowLikePutAll() {
+        CompactRow base = row("GZ", 10L, "SMS", 3);
+        base.put("extra", "x");
+        Map<String, Object> overlay = new LinkedCaseInsensitiveMap<>();
+        overlay.put("EXTRA", "y");
+        overlay.put("brand", "366");
+
+        Map<String, Object> merged = CompactRow.merge(base, overlay);
+
+        Map<String, Object> reference = reference("GZ", 10L, "SMS", 3);
+        reference.put("extra", "x");
+        reference.putAll(overlay);
+        assertSameMap(merged, reference);
+        assertThat(merged.get("Extra")).isEqualTo("y");
+    }
+
+    @Test
+    void copiesRowThatFellBack() {
+        CompactRow row = row("GZ", 10L, "SMS", 3);
+        row.put("clientCount", "ten");
+
+        Map<String, Object> copy = CompactRow.copyOf(row);
+        copy.put("BRAND", "366");
+
+        assertThat(copy).isNotInstanceOf(CompactRow.class);
+        assertThat(copy.get("clientcount")).isEqualTo("ten");
+        assertThat(copy.get("brand")).isEqualTo("366");
+        assertThat(row.get("brand")).isEqualTo("GZ");
+        Map<String, Object> reference = reference("GZ", "ten", "SMS", 3);
+        reference.put("BRAND", "366");
+        assertSameMap(copy, reference);
+    }
+
+    @Test
+    void copiesCompactRowWithoutSharingState() {
+        CompactRow row = row("GZ", 10L, "SMS", 3);
+        row.put("extra", "x");
+
+        Map<String, Object> copy = CompactRow.copyOf(row);
+        copy.put("clientCount", 11L);
+        copy.put("EXTRA", "y");
+
+        assertThat(copy).isInstanceOf(CompactRow.class);
+        assertThat(row.get("clientCount")).isEqualTo(10L);
+        assertThat(row.get("extra")).isEqualTo("x");
+        assertThat(copy.get("extra")).isEqualTo("y");
+    }
+
+    @Test
+    void clearsAndRemovesLikeReferenceMap() {
+        CompactRow row = row("GZ", 10L, "SMS", 3);
+        Map<String, Object> reference = reference("GZ", 10L, "SMS", 3);
+
+        assertThat(row.remove("CHANNEL")).isEqualTo(reference.remove("CHANNEL"));
+        assertThat(row.remove("missing")).isEqualTo(reference.remove("missing"));
+        assertSameMap(row, reference);
+
+        row.clear();
+        reference.clear();
+        assertSameMap(row, reference);
+        row.put("Brand", "GZ");
+        assertThat(row.get("brand")).isEqualTo("GZ");
+    }
+
+    private static void assertSameMap(Map<String, Object> row, Map<String, Object> reference) {
+        assertThat(new ArrayList<>(row.entrySet())).containsExactlyElementsOf(new ArrayList<>(reference.entrySet()));
+        assertThat(row).hasSize(reference.size());
+        assertThat(row).isEqualTo(reference);
+        assertThat(reference).isEqualTo(row);
+        assertThat(row.hashCode()).isEqualTo(reference.hashCode());
+        assertThat(row.toString()).isEqualTo(reference.toString());
+    }
+
+    private static Map<String, Object> referenceMerge(Map<String, Object> base, Map<String, Object> overlay) {
+        Map<String, Object> reference = new LinkedCaseInsensitiveMap<>();
+        reference.putAll(base);
+        reference.putAll(overlay);
+        return reference;
+    }
+
+    private static CompactRow row(Object brand, Long clientCount, Object channel, Integer dayNum) {
+        CompactRow row = new CompactRow(SCHEMA);
+        row.setObject(0, brand);
+        row.setPrimitive(1, clientCount == null ? 0 : clientCount, clientCount == null);
+        row.setObject(2, channel);
+        row.setPrimitive(3, dayNum == null ? 0 : dayNum, dayNum == null);
+        return row;
+    }
+
+    private static Map<String, Object> reference(Object brand, Object clientCount, Object channel, Object dayNum) {
+        Map<String, Object> map = new LinkedCaseInsensitiveMap<>();
+        map.put("brand", brand);
+        map.put("clientCount", clientCount);
+        map.put("channel", channel);
+        map.put("dayNum", dayNum);
+        return map;
+    }
+}
@@ -0,0 +1,117 @@
+package rubbles.monitoring.coverage.common.core;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OverlayMapTest {
+
+    @Test
+    void parentKeyWinsOverChildKeyOfOtherCase() {
+        Map<String, Object> parent = new LinkedHashMap<>(Map.of("clientId", 1L));
+        parent.put("brand", "GZ");
+        Map<String, Object> child = row(new String[]{"clientid", "channel"}, 2L, "SMS");
+
+        Map<String, Object> overlay = OverlayMap.over(parent, child);
+
+        assertThat(overlay.get("clientId")).isEqualTo(1L);
+        assertThat(overlay.get("clientid")).isEqualTo(2L);
+        assertMatchesBaseline(overlay, parent, child);
+    }
+
+    @Test
+    void caseInsensitiveParentKeepsBothEntries() {
+        Map<String, Object> parent = row(new String[]{"clientId", "brand"}, 1L, "GZ");
+        Map<String, Object> child = new LinkedCaseInsensitiveMap<>();
+        child.put("CLIENTID", 2L);
+        child.put("brand", "366");
+
+        Map<String, Object> overlay = OverlayMap.over(parent, child);
+
+        assertThat(overlay.get("clientId")).isEqualTo(1L);
+        assertThat(overlay.get("CLIENTID")).isEqualTo(2L);
+        assertThat(overlay.get("brand")).isEqualTo("366");
+        assertMatchesBaseline(overlay, parent, child);
+    }
+
+    @Test
+    void keyOfNoExactMatchUsesLayerMatching() {
+        Map<String, Object> parent = row(new String[]{"clientId"}, 1L);
+        Map<String, Object> child = row(new String[]{"channel"}, "SMS");
+
+        Map<String, Object> overlay = OverlayMap.over(parent, child);
+
+        assertThat(overlay.get("CLIENTID")).isEqualTo(1L);
+        assertThat(overlay.get("Channel")).isEqualTo("SMS");
+        assertThat(overlay.containsKey("CHANNEL")).isTrue();
+    }
+
+    @Test
+    void removingParentKeyKeepsOtherCaseEntry() {
+        Map<String, Object> parent = row(new String[]{"clientId", "brand"}, 1L, "GZ");
+        Map<String, Object> child = row(new String[]{"clientid"}, 2L);
+        Map<String, Object> overlay = OverlayMap.over(parent, child);
+
+        overlay.remove("brand");
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("clientId", 1L);
+        expected.put("clientid", 2L);
+        assertThat(entries(overlay)).containsExactlyElementsOf(entries(expected));
+        assertThat(parent).containsEntry("brand", "GZ");
+    }
+
+    @Test
+    void deepChainsMatchBaseline() {
+        Map<String, Object> data = row(new String[]{"clientId"}, 0L);
+        Map<String, Object> baseline = new LinkedHashMap<>(data);
+        for (int i = 1; i <= OverlayMap.MAX_DEPTH + 3; i++) {
+            Map<String, Object> child = new LinkedHashMap<>();
+            child.put(i % 2 == 0 ? "clientId" : "CLIENTID", (long) i);
+            child.put("level" + i, i);
+            data = OverlayMap.over(data, child);
+            baseline.putAll(child);
+        }
+
+        assertThat(entries(data)).containsExactlyElementsOf(entries(baseline));
+        assertThat(data).isEqualTo(baseline).hasSameHashCodeAs(baseline);
+    }
+
+    private static void assertMatchesBaseline(Map<String, Object> overlay, Map<String, Object> parent,
+                                              Map<String, Object> child) {
+        Map<String, Object> baseline = new LinkedHashMap<>(parent);
+        baseline.putAll(child);
+        assertThat(entries(overlay)).containsExactlyElementsOf(entries(baseline));
+        assertThat(overlay).hasSize(baseline.size()).isEqualTo(baseline).hasSameHashCodeAs(baseline);
+        for (String key : baseline.keySet()) {
+            assertThat(overlay.get(key)).as(key).isEqualTo(baseline.get(key));
+        }
+        Map<String, Object> copy = new RawMessage(overlay).getData();
+        assertThat(entries(copy)).containsExactlyElementsOf(entries(baseline));
+    }
+
+    private static List<Map.Entry<String, Object>> entries(Map<String, Object> map) {
+        List<Map.Entry<String, Object>> entries = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            entries.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        return entries;
+    }
+
+    private static CompactRow row(String[] names, Object... values) {
+        RowSchema.Kind[] kinds = new RowSchema.Kind[names.length];
+        Arrays.fill(kinds, RowSchema.Kind.OBJECT);
+        CompactRow row = new CompactRow(RowSchema.of(names, kinds));
+        for (int i = 0; i < names.length; i++) {
+            row.put(names[i], values[i]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,83 @@
+package rubbles.monitoring.coverage.common.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class PipelineTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    void keepsOrderWhenProcessorThrowsError() {
+        List<String> consumed = new CopyOnWriteArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+        PipelineStats stats = assertTimeoutPreemptively(TIMEOUT, () -> Pipeline.from(counter(100))
+                .apply("check", message -> {
+                    if (message.getId().equals("7")) {
+                        throw new AssertionError("bad message " + message.getId());
+                    }
+                    return List.of(message);
+                }, 4)
+                .queueCapacity(8)
+                .ordered(true)
+                .onError((stage, message, e) -> errors.add(e))
+                .run("test", message -> consumed.add(message.getId()), 1));
+
+        assertThat(consumed).hasSize(99).doesNotContain("7").isSortedAccordingTo(
+                (a, b) -> Integer.compare(Integer.parseInt(a), Integer.parseInt(b)));
+        assertThat(errors).singleElement().isInstanceOf(AssertionError.class);
+        assertThat(stats.getErrors()).isEqualTo(1);
+    }
+
+    @Test
+    void finishesWhenSupplierThrowsError() {
+        AtomicInteger supplied = new AtomicInteger();
+        List<String> consumed = new CopyOnWriteArrayList<>();
+
+        PipelineStats stats = assertTimeoutPreemptively(TIMEOUT, () -> Pipeline.<Message>from(() -> {
+                    if (supplied.incrementAndGet() > 3) {
+                        throw new StackOverflowError();
+                    }
+                    return new Message(String.valueOf(supplied.get()));
+                })
+                .apply("pass", List::of, 2)
+                .onError((stage, message, e) -> { })
+                .run("test", message -> consumed.add(message.getId()), 2));
+
+        assertThat(consumed).containsExactlyInAnyOrder("1", "2", "3");
+        assertThat(stats.getErrors()).isEqualTo(1);
+    }
+
+    @Test
+    void finishesWhenConsumerThrowsError() {
+        AtomicInteger consumed = new AtomicInteger();
+
+        PipelineStats stats = assertTimeoutPreemptively(TIMEOUT, () -> Pipeline.from(counter(20))
+                .ordered(true)
+                .queueCapacity(2)
+                .onError((stage, message, e) -> { })
+                .run("test", message -> {
+                    if (consumed.incrementAndGet() % 5 == 0) {
+                        throw new NoClassDefFoundError("missing");
+                    }
+                }, 1));
+
+        assertThat(consumed).hasValue(20);
+        assertThat(stats.getErrors()).isEqualTo(4);
+    }
+
+    private static Supplier<Message> counter(int count) {
+        AtomicInteger next = new AtomicInteger();
+        return () -> {
+            int id = next.getAndIncrement();
+            return id < count ? new Message(String.valueOf(id)) : null;
+        };
+    }
+}
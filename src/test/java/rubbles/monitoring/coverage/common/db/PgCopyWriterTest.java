@@ -0,0 +1,175 @@
+package rubbles.monitoring.coverage.common.db;
+
+import org.junit.jupiter.api.Test;
+import org.postgresql.copy.CopyIn;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PgCopyWriterTest {
+    private static final int HEADER_BYTES = 19;
+    private static final long MICROS_1970 = -946_684_800_000_000L;
+
+    @Test
+    void encodesNumericZero() throws Exception {
+        assertThat(binary("numeric", BigDecimal.ZERO)).isEqualTo(numeric(0, 0, 0));
+        assertThat(binary("numeric", new BigDecimal("0.00"))).isEqualTo(numeric(0, 0, 2));
+    }
+
+    @Test
+    void encodesNumericFraction() throws Exception {
+        assertThat(binary("numeric", new BigDecimal("0.0001"))).isEqualTo(numeric(-1, 0, 4, 1));
+        assertThat(binary("numeric", new BigDecimal("0.00001"))).isEqualTo(numeric(-2, 0, 5, 1000));
+    }
+
+    @Test
+    void encodesNumericWithTrailingZeroGroups() throws Exception {
+        assertThat(binary("numeric", new BigDecimal("10000"))).isEqualTo(numeric(1, 0, 0, 1));
+        assertThat(binary("numeric", new BigDecimal("123456789.5"))).isEqualTo(numeric(2, 0, 1, 1, 2345, 6789, 5000));
+    }
+
+    @Test
+    void encodesNegativeNumeric() throws Exception {
+        assertThat(binary("numeric", new BigDecimal("-123.45"))).isEqualTo(numeric(0, 0x4000, 2, 123, 4500));
+    }
+
+    @Test
+    void encodesNumericOfNegativeScale() throws Exception {
+        assertThat(binary("numeric", new BigDecimal("1E+5"))).isEqualTo(numeric(1, 0, 0, 10));
+        assertThat(binary("numeric", new BigDecimal("-12E+3"))).isEqualTo(numeric(1, 0x4000, 0, 1, 2000));
+    }
+
+    @Test
+    void encodesNumericFromOtherNumbers() throws Exception {
+        assertThat(binary("numeric", 42L)).isEqualTo(numeric(0, 0, 0, 42));
+    }
+
+    @Test
+    void encodesTimestampAroundEpochs() throws Exception {
+        assertThat(binary("timestamp", LocalDateTime.of(2000, 1, 1, 0, 0))).isEqualTo(int8(0));
+        assertThat(binary("timestamp", LocalDateTime.of(1999, 12, 31, 23, 59, 59, 999_999_000))).isEqualTo(int8(-1));
+        assertThat(binary("timestamp", LocalDateTime.of(1970, 1, 1, 0, 0))).isEqualTo(int8(MICROS_1970));
+        assertThat(binary("timestamp", Timestamp.valueOf("2000-01-01 00:00:00.000001"))).isEqualTo(int8(1));
+        assertThat(binary("timestamp", LocalDate.of(2000, 1, 2))).isEqualTo(int8(86_400_000_000L));
+    }
+
+    @Test
+    void encodesTimestamptzAroundEpochs() throws Exception {
+        assertThat(binary("timestamptz", Instant.parse("2000-01-01T00:00:00Z"))).isEqualTo(int8(0));
+        assertThat(binary("timestamptz", OffsetDateTime.of(2000, 1, 1, 3, 0, 0, 0, ZoneOffset.ofHours(3))))
+                .isEqualTo(int8(0));
+        assertThat(binary("timestamptz", Instant.EPOCH)).isEqualTo(int8(MICROS_1970));
+        assertThat(binary("timestamptz", new Date(-1))).isEqualTo(int8(MICROS_1970 - 1000));
+        assertThat(binary("timestamptz", Timestamp.from(Instant.parse("1999-12-31T23:59:59.999999Z"))))
+                .isEqualTo(int8(-1));
+    }
+
+    @Test
+    void encodesDatesAroundEpoch() throws Exception {
+        assertThat(binary("date", LocalDate.of(2000, 1, 1))).isEqualTo(int4(0));
+        assertThat(binary("date", LocalDate.of(1999, 12, 31))).isEqualTo(int4(-1));
+        assertThat(binary("date", java.sql.Date.valueOf("1970-01-01"))).isEqualTo(int4(-10957));
+    }
+
+    @Test
+    void encodesTextAndNull() throws Exception {
+        assertThat(binary("text", "привет")).isEqualTo(bytes("привет".getBytes(StandardCharsets.UTF_8)));
+        assertThat(binary("text", null)).isEqualTo(ByteBuffer.allocate(4).putInt(-1).array());
+    }
+
+    @Test
+    void escapesTextFormat() throws Exception {
+        assertThat(text(new Object[]{"a\tb\\c\nd", null, true, new BigDecimal("1E+2")}))
+                .isEqualTo("a\\tb\\\\c\\nd\t\\N\tt\t100\n");
+    }
+
+    @Test
+    void formatsJavaDatesForTextFormat() {
+        Date date = new Date(1_700_000_000_123L);
+        assertThat(OffsetDateTime.parse(PgCopyWriter.text(date)).toInstant()).isEqualTo(date.toInstant());
+        assertThat(PgCopyWriter.text(java.sql.Date.valueOf("2024-02-29"))).isEqualTo("2024-02-29");
+        assertThat(PgCopyWriter.text(Timestamp.valueOf("2024-02-29 10:11:12.5"))).isEqualTo("2024-02-29 10:11:12.5");
+    }
+
+    @Test
+    void formatsArraysAsArrayLiterals() {
+        assertThat(PgCopyWriter.text(new int[]{1, 2, 3})).isEqualTo("{\"1\",\"2\",\"3\"}");
+        assertThat(PgCopyWriter.text(new String[]{"a,b", null, "q\"\\"})).isEqualTo("{\"a,b\",NULL,\"q\\\"\\\\\"}");
+        assertThat(PgCopyWriter.text(new long[][]{{1}, {2}})).isEqualTo("{{\"1\"},{\"2\"}}");
+    }
+
+    private static byte[] binary(String type, Object value) throws Exception {
+        PgCopyWriter writer = new PgCopyWriter(new String[]{type});
+        assertThat(writer.isBinary()).isTrue();
+        byte[] stream = copy(writer, new Object[]{value});
+        ByteBuffer buffer = ByteBuffer.wrap(stream);
+        buffer.position(HEADER_BYTES);
+        assertThat(buffer.getShort()).isEqualTo((short) 1);
+        assertThat(buffer.getShort(stream.length - 2)).isEqualTo((short) -1);
+        return Arrays.copyOfRange(stream, HEADER_BYTES + 2, stream.length - 2);
+    }
+
+    private static String text(Object[] row) throws Exception {
+        String[] types = {"text", "text", "bool", "jsonb"};
+        PgCopyWriter writer = new PgCopyWriter(types);
+        assertThat(writer.isBinary()).isFalse();
+        return new String(copy(writer, row), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] copy(PgCopyWriter writer, Object[] row) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CopyIn copyIn = (CopyIn) Proxy.newProxyInstance(CopyIn.class.getClassLoader(), new Class<?>[]{CopyIn.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("writeToCopy") && args.length == 3) {
+                        out.write((byte[]) args[0], (int) args[1], (int) args[2]);
+                        return null;
+                    }
+                    if (method.getName().equals("endCopy")) {
+                        return 1L;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        writer.begin(copyIn);
+        writer.writeRow(row);
+        writer.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] numeric(int weight, int sign, int dscale, int... digits) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + digits.length * 2);
+        buffer.putInt(8 + digits.length * 2);
+        buffer.putShort((short) digits.length);
+        buffer.putShort((short) weight);
+        buffer.putShort((short) sign);
+        buffer.putShort((short) dscale);
+        for (int digit : digits) {
+            buffer.putShort((short) digit);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] int8(long value) {
+        return ByteBuffer.allocate(12).putInt(8).putLong(value).array();
+    }
+
+    private static byte[] int4(int value) {
+        return ByteBuffer.allocate(8).putInt(4).putInt(value).array();
+    }
+
+    private static byte[] bytes(byte[] value) {
+        return ByteBuffer.allocate(4 + value.length).putInt(value.length).put(value).array();
+    }
+}
@@ -0,0 +1,38 @@
+package rubbles.monitoring.coverage.db;
+
+import org.junit.jupiter.api.Test;
+import rubbles.monitoring.coverage.model.OfferCoverageQueryResult;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CoverageMergeTest {
+
+    @Test
+    void recomputesPercentagesOfRowsFoundOnOneShard() {
+        List<OfferCoverageQueryResult> merged = CoverageMerge.offerCoverage(List.of(
+                List.of(offers("A", 1000, 200, 100, "20.0")),
+                List.of(offers("A", 1000, 300, 50, "30.0"), offers("B", 800, 99, 33, "12.4"))));
+
+        assertThat(merged).extracting(OfferCoverageQueryResult::getBrand).containsExactly("A", "B");
+        assertThat(merged.get(0).getUniqueClientsWithOffer()).isEqualTo(500);
+        assertThat(merged.get(0).getOfferCoverage()).isEqualTo("25.00%");
+        assertThat(merged.get(0).getOfferWithCommCoverage()).isEqualTo("7.50%");
+        assertThat(merged.get(1).getOfferCoverage()).isEqualTo("12.38%");
+        assertThat(merged.get(1).getOfferWithCommCoverage()).isEqualTo("4.13%");
+    }
+
+    @Test
+    void keepsRowsOfSingleShardAsReturned() {
+        List<OfferCoverageQueryResult> rows = List.of(offers("A", 1000, 200, 100, "20.0"));
+
+        assertThat(CoverageMerge.offerCoverage(List.of(rows))).isSameAs(rows);
+    }
+
+    private static OfferCoverageQueryResult offers(String brand, long availableBase, long withOffer,
+                                                   long withOfferAndComm, String coverage) {
+        return new OfferCoverageQueryResult(brand, availableBase, withOffer * 2, withOffer, withOfferAndComm * 2,
+                withOfferAndComm, coverage, coverage);
+    }
+}
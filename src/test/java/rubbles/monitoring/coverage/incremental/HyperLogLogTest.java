@@ -0,0 +1,102 @@
+package rubbles.monitoring.coverage.incremental;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class HyperLogLogTest {
+
+    @Test
+    void emptySketchEstimatesZero() {
+        assertThat(new HyperLogLog().estimate()).isZero();
+        assertThat(HyperLogLog.fromBytes(null).estimate()).isZero();
+    }
+
+    @Test
+    void countsFewIdsExactly() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long id = 1; id <= 10; id++) {
+            sketch.add(id);
+            // duplicates do not count
+            sketch.add(id);
+        }
+        assertThat(sketch.estimate()).isEqualTo(10);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 1_000_000})
+    void estimatesWithinFewPercent(int distinct) {
+        HyperLogLog numbers = new HyperLogLog();
+        HyperLogLog strings = new HyperLogLog();
+        for (int id = 0; id < distinct; id++) {
+            numbers.add(7_000_000_000L + id);
+            strings.add("client-" + id);
+        }
+        assertThat((double) numbers.estimate()).isCloseTo(distinct, within(distinct * 0.03));
+        assertThat((double) strings.estimate()).isCloseTo(distinct, within(distinct * 0.03));
+    }
+
+    @Test
+    void unionEqualsSketchOfUnion() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        HyperLogLog all = new HyperLogLog();
+        // overlapping ranges: 0..59999 and 40000..99999
+        for (long id = 0; id < 60_000; id++) {
+            first.add(id);
+            all.add(id);
+        }
+        for (long id = 40_000; id < 100_000; id++) {
+            second.add(id);
+            all.add(id);
+        }
+
+        HyperLogLog union = HyperLogLog.fromBytes(first.toBytes()).merge(second);
+
+        assertThat(union.toBytes()).isEqualTo(all.toBytes());
+        assertThat((double) union.estimate()).isCloseTo(100_000, within(3_000.0));
+        assertThat(HyperLogLog.fromBytes(second.toBytes()).merge(first).toBytes()).isEqualTo(all.toBytes());
+    }
+
+    @Test
+    void mergeWithItselfChangesNothing() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long id = 0; id < 5_000; id++) {
+            sketch.add(id);
+        }
+        byte[] before = sketch.toBytes();
+
+        assertThat(sketch.merge(HyperLogLog.fromBytes(before)).toBytes()).isEqualTo(before);
+    }
+
+    @Test
+    void roundTripsThroughBytes() {
+        HyperLogLog sketch = new HyperLogLog();
+        sketch.add("a");
+        sketch.add(42L);
+        byte[] bytes = sketch.toBytes();
+
+        assertThat(HyperLogLog.fromBytes(bytes).estimate()).isEqualTo(sketch.estimate());
+        // the sketch keeps its own copy
+        bytes[0] = 100;
+        assertThat(sketch.toBytes()[0]).isNotEqualTo((byte) 100);
+        assertThatThrownBy(() -> HyperLogLog.fromBytes(new byte[16])).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void ranksStayInRangeForExtremeHashes() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long id = -1_000; id < 1_000; id++) {
+            sketch.add(id);
+            sketch.add(Long.MIN_VALUE + id);
+        }
+        for (byte register : sketch.toBytes()) {
+            assertThat((int) register).isBetween(0, 64 - 14 + 1);
+        }
+        assertThat((double) sketch.estimate()).isCloseTo(4_000, within(120.0));
+    }
+}
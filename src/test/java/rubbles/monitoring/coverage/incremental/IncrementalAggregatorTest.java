@@ -0,0 +1,152 @@
+package rubbles.monitoring.coverage.incremental;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import rubbles.monitoring.coverage.common.db.DbService;
+import rubbles.monitoring.coverage.model.CommunicationCoverageQueryResult;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IncrementalAggregatorTest {
+    private static final String TABLE = "coverage_daily";
+    private static final String VERSIONS_QUERY = "select day, version from source_versions";
+    private static final String DAILY_QUERY = "select * from source_daily where day = :day";
+    private static final LocalDate TODAY = LocalDate.of(2026, 10, 4);
+
+    private final DbService dbService = mock(DbService.class);
+    private final Map<LocalDate, String> storedVersions = new LinkedHashMap<>();
+    private final Map<LocalDate, String> sourceVersions = new LinkedHashMap<>();
+    private final List<DailyAggregate> storedDailies = new ArrayList<>();
+    private IncrementalAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        aggregator = new IncrementalAggregator();
+        ReflectionTestUtils.setField(aggregator, "cdmDbService", dbService);
+        ReflectionTestUtils.setField(aggregator, "enabled", true);
+        ReflectionTestUtils.setField(aggregator, "coverageDailyTable", TABLE);
+        ReflectionTestUtils.setField(aggregator, "selectCommunicationDayVersionsQuery", VERSIONS_QUERY);
+        ReflectionTestUtils.setField(aggregator, "selectCommunicationCoverageDailyQuery", DAILY_QUERY);
+
+        doAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            Consumer<Object> handler = invocation.getArgument(3);
+            if (sql.equals(VERSIONS_QUERY)) {
+                sourceVersions.forEach((day, version) -> handler.accept(new Object[]{day, version}));
+            } else if (sql.startsWith("select day, max(source_version)")) {
+                storedVersions.forEach((day, version) -> handler.accept(new Object[]{day, version}));
+            } else {
+                storedDailies.forEach(handler);
+            }
+            return null;
+        }).when(dbService).select(any(), anyMap(), any(), any());
+        when(dbService.select(eq(DAILY_QUERY), anyMap(), any())).thenAnswer(invocation -> {
+            LocalDate day = (LocalDate) ((Map<?, ?>) invocation.getArgument(1)).get("day");
+            return List.of(daily(day, null, 10L, day.getDayOfMonth() * 100L, 50));
+        });
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(dbService).inTransaction(any());
+    }
+
+    @Test
+    void recomputesNewAndChangedDaysAndDeletesVanishedOnes() {
+        storedVersions.put(TODAY.withDayOfMonth(1), "v1");
+        storedVersions.put(TODAY.withDayOfMonth(2), "v1");
+        storedVersions.put(TODAY.withDayOfMonth(3), "v1");
+        sourceVersions.put(TODAY.withDayOfMonth(1), "v1");
+        sourceVersions.put(TODAY.withDayOfMonth(2), "v2");
+        sourceVersions.put(TODAY.withDayOfMonth(4), "v1");
+
+        aggregator.selectCommunicationCoverageData(TODAY);
+
+        ArgumentCaptor<List<Map<String, Object>>> deleted = captor();
+        verify(dbService).batchUpdate(eq("delete from " + TABLE + " where section = :section and day = :day"),
+                deleted.capture());
+        assertThat(deleted.getValue()).extracting(key -> key.get("day"))
+                .containsExactly(TODAY.withDayOfMonth(2), TODAY.withDayOfMonth(3), TODAY.withDayOfMonth(4));
+        assertThat(deleted.getValue()).allSatisfy(key -> assertThat(key).containsEntry("section", "communication"));
+
+        ArgumentCaptor<List<Map<String, Object>>> inserted = captor();
+        verify(dbService).simpleBatchInsert(eq(TABLE), inserted.capture());
+        assertThat(inserted.getValue()).extracting(row -> row.get("day"), row -> row.get("source_version"))
+                .containsExactly(tuple(TODAY.withDayOfMonth(2), "v2"),
+                        tuple(TODAY.withDayOfMonth(4), "v1"));
+        verify(dbService, never()).select(eq(DAILY_QUERY), eq(Map.of("day", TODAY.withDayOfMonth(1))), any());
+        verify(dbService, never()).select(eq(DAILY_QUERY), eq(Map.of("day", TODAY.withDayOfMonth(3))), any());
+    }
+
+    @Test
+    void deletesDaysThatOnlyVanished() {
+        storedVersions.put(TODAY.withDayOfMonth(1), "v1");
+        storedVersions.put(TODAY.withDayOfMonth(2), "v1");
+        sourceVersions.put(TODAY.withDayOfMonth(1), "v1");
+
+        aggregator.selectCommunicationCoverageData(TODAY);
+
+        ArgumentCaptor<List<Map<String, Object>>> deleted = captor();
+        verify(dbService).batchUpdate(any(), deleted.capture());
+        assertThat(deleted.getValue()).extracting(key -> key.get("day")).containsExactly(TODAY.withDayOfMonth(2));
+        verify(dbService, never()).simpleBatchInsert(any(), anyList());
+    }
+
+    @Test
+    void writesNothingWhenNoDayChanged() {
+        storedVersions.put(TODAY.withDayOfMonth(1), "v1");
+        sourceVersions.put(TODAY.withDayOfMonth(1), "v1");
+
+        aggregator.selectCommunicationCoverageData(TODAY);
+
+        verify(dbService, never()).inTransaction(any());
+        verify(dbService, never()).batchUpdate(any(), anyList());
+    }
+
+    @Test
+    void mergesStoredDaysIntoMonth() {
+        storedDailies.add(daily(TODAY.withDayOfMonth(1), "v1", 10L, 0, 1_000));
+        storedDailies.add(daily(TODAY.withDayOfMonth(2), "v1", 5L, 500, 1_000));
+
+        List<CommunicationCoverageQueryResult> month = aggregator.selectCommunicationCoverageData(TODAY);
+
+        assertThat(month).singleElement().satisfies(row -> {
+            assertThat(row.getCommCount()).isEqualTo(15L);
+            // ids 0..999 and 500..1499 overlap
+            assertThat((double) row.getUniqueClientCount()).isBetween(1_455.0, 1_545.0);
+            assertThat(row.getAvailableBase()).isEqualTo(TODAY.withDayOfMonth(2).getDayOfMonth() * 1000L);
+        });
+    }
+
+    private static DailyAggregate daily(LocalDate day, String version, Long count, long firstId, int ids) {
+        HyperLogLog clients = new HyperLogLog();
+        for (long id = firstId; id < firstId + ids; id++) {
+            clients.add(id);
+        }
+        return new DailyAggregate(day, "GZ", "trigger", "SMS", version, count, clients, null, new HyperLogLog(),
+                day.getDayOfMonth() * 1000L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<Map<String, Object>>> captor() {
+        return ArgumentCaptor.forClass((Class<List<Map<String, Object>>>) (Class<?>) List.class);
+    }
+}